@@ -0,0 +1,70 @@
+package com.smarthome.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.automation.Automation;
+import com.smarthome.devices.Device;
+
+// Rule dispatch with a growing rule set; every trigger device owns one rule
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AutomationBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int ruleCount;
+
+    private Automation automation;
+    private Device[] triggers;
+    private Automation.Rule[] rules;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fleet.silenceConsole();
+        automation = new Automation();
+        triggers = new Device[ruleCount];
+        for (int i = 0; i < ruleCount; i++) {
+            triggers[i] = Fleet.newDevice(i);
+            Device target = Fleet.newDevice(ruleCount + i);
+            automation.createRule("rule" + i, triggers[i], "motion", i % 2 == 0 ? "ON" : "OFF", target);
+        }
+        rules = automation.getRules();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public void triggerEventMatching() {
+        automation.triggerEvent(triggers[ThreadLocalRandom.current().nextInt(ruleCount)], "motion");
+    }
+
+    @Benchmark
+    public void triggerEventNoMatch() {
+        automation.triggerEvent(triggers[ThreadLocalRandom.current().nextInt(ruleCount)], "no-such-condition");
+    }
+
+    @Benchmark
+    public void ruleExecute() {
+        rules[ThreadLocalRandom.current().nextInt(rules.length)].execute();
+    }
+}
@@ -0,0 +1,38 @@
+package com.smarthome.bench;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs every benchmark once per thread count, with the GC profiler for allocation rates,
+// and writes one JSON result file per thread count.
+// Usage: java -jar target/benchmarks.jar [results-dir] [thread counts...]
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        String resultsDir = args.length > 0 ? args[0] : "jmh-results";
+        int[] threadCounts = {1, 2, 4, 8};
+        if (args.length > 1) {
+            threadCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                threadCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        new File(resultsDir).mkdirs();
+
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include("com\\.smarthome\\.bench\\..*Benchmark")
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultsDir + File.separator + "threads-" + threads + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.smarthome.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.automation.Automation;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.Light;
+import com.smarthome.exception.AutomationException;
+
+// One toggle of a root light propagated through a rule graph, where each edge is a pair
+// of condition rules copying the trigger's power state onto its target.
+// deep: a chain of size lights. wide: the root fans out to size lights, which all drive
+// one shared sink, so the last level coalesces size redundant actions into one.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CascadeBenchmark {
+    @Param({"deep", "wide"})
+    public String shape;
+
+    @Param({"256"})
+    public int size;
+
+    private Automation automation;
+    private Device root;
+    private boolean on;
+
+    @Setup(Level.Trial)
+    public void setUp() throws AutomationException {
+        Fleet.silenceConsole();
+        automation = new Automation();
+        automation.setCascadeLimits(size + 2, Integer.MAX_VALUE);
+        root = new Light("ROOT", "Root", "Room");
+        if (shape.equals("deep")) {
+            Device previous = root;
+            for (int i = 0; i < size; i++) {
+                Device next = new Light("L" + i, "Light " + i, "Room");
+                follow("r" + i, previous, next);
+                previous = next;
+            }
+        } else {
+            Device sink = new Light("SINK", "Sink", "Room");
+            for (int i = 0; i < size; i++) {
+                Device leaf = new Light("L" + i, "Light " + i, "Room");
+                follow("r" + i, root, leaf);
+                follow("s" + i, leaf, sink);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public boolean toggleRoot() {
+        on = !on;
+        root.switchPower(on);
+        automation.deviceChanged(root, on, root.getStateValue(), root.getStateText());
+        return on;
+    }
+
+    private void follow(String name, Device trigger, Device target) throws AutomationException {
+        automation.createRule(name + "-on", trigger, "on == true", "ON", target);
+        automation.createRule(name + "-off", trigger, "on == false", "OFF", target);
+    }
+}
@@ -0,0 +1,86 @@
+package com.smarthome.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.cluster.ClusterNode;
+import com.smarthome.cluster.LocalTransport;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Light;
+
+// Commands per second through an in-process cluster as nodes are added. Each command
+// enters at a random node, is forwarded to the owner when needed and is acknowledged once
+// the follower holds the new state, so the figures include replication.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusterBenchmark {
+    private static final int DEVICES = 4096;
+    private static final int BATCH = 256;
+
+    @Param({"1", "2", "4", "8"})
+    public int nodes;
+
+    private LocalTransport transport;
+    private ClusterNode[] members;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fleet.silenceConsole();
+        transport = new LocalTransport();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            ids.add("node-" + i);
+        }
+        members = new ClusterNode[nodes];
+        for (int i = 0; i < nodes; i++) {
+            SmartHomeSystem system = new SmartHomeSystem(ids.get(i));
+            members[i] = new ClusterNode(ids.get(i), system, system.openSession("admin", "admin123"), transport, ids);
+        }
+        for (int i = 0; i < DEVICES; i++) {
+            members[i % nodes].addDevice(new Light("L" + i, "Light " + i, "Room")).join();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ClusterNode member : members) {
+            member.shutdown();
+        }
+        transport.close();
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void commands() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            ClusterNode entry = members[random.nextInt(nodes)];
+            replies[i] = entry.control("L" + random.nextInt(DEVICES), "BRIGHTNESS", Integer.toString(random.nextInt(101)));
+        }
+        CompletableFuture.allOf(replies).join();
+    }
+}
@@ -0,0 +1,71 @@
+package com.smarthome.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Device;
+
+// Command dispatch and per-device energy updates
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlBenchmark {
+    @Param({"100", "10000", "1000000"})
+    public int fleetSize;
+
+    private SmartHomeSystem system;
+    private Device[] lights;
+    private Device[] all;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fleet.silenceConsole();
+        system = Fleet.build(fleetSize);
+        lights = system.getDevicesByType("Light");
+        all = new Device[fleetSize];
+        for (int i = 0; i < fleetSize; i++) {
+            all[i] = system.getDevice(Fleet.deviceId(i));
+        }
+        system.controlDevices("ON", all);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public void controlDevicesBrightness() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Device light = lights[random.nextInt(lights.length)];
+        system.controlDevices("BRIGHTNESS", Integer.toString(random.nextInt(101)), light);
+    }
+
+    @Benchmark
+    public void controlDevicesRedundantOn() {
+        system.controlDevices("ON", all[ThreadLocalRandom.current().nextInt(all.length)]);
+    }
+
+    @Benchmark
+    public void updateEnergyConsumption() {
+        all[ThreadLocalRandom.current().nextInt(all.length)].updateEnergyConsumption();
+    }
+}
@@ -0,0 +1,101 @@
+package com.smarthome.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.AirConditioner;
+import com.smarthome.devices.Light;
+
+// One command on one device through the typed path, the string adapter, and the string
+// switch with per-call parsing that Light.control used before commands were compiled.
+// Values alternate so every call changes state; run with the GC profiler for allocations.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final String[] LEVELS = {"40", "60"};
+    private static final int[] VALUES = {40, 60};
+
+    private Light light;
+    private AirConditioner airConditioner;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fleet.silenceConsole();
+        light = new Light("L0", "Light 0", "Room");
+        airConditioner = new AirConditioner("AC0", "AC 0", "Room");
+        light.switchPower(true);
+        airConditioner.switchPower(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public Transition lightTyped() {
+        return light.apply(DeviceCommand.BRIGHTNESS, VALUES[next++ & 1]);
+    }
+
+    @Benchmark
+    public Transition lightString() {
+        return light.apply("BRIGHTNESS", LEVELS[next++ & 1]);
+    }
+
+    @Benchmark
+    public void lightLegacySwitch() {
+        legacyControl(light, "BRIGHTNESS", LEVELS[next++ & 1]);
+    }
+
+    @Benchmark
+    public Transition airConditionerTyped() {
+        return airConditioner.apply(DeviceCommand.TEMP, VALUES[next++ & 1] / 2);
+    }
+
+    @Benchmark
+    public Transition airConditionerString() {
+        return airConditioner.apply("TEMP", VALUES[next++ & 1] == 40 ? "20" : "30");
+    }
+
+    // The pre-compilation dispatch: a string switch and a parse on every call
+    private static void legacyControl(Light light, String command, String... parameters) {
+        try {
+            switch (command) {
+                case "ON":
+                    light.turnOn();
+                    break;
+                case "OFF":
+                    light.turnOff();
+                    break;
+                case "BRIGHTNESS":
+                    if (parameters.length > 0) {
+                        light.setBrightness(Integer.parseInt(parameters[0]));
+                    }
+                    break;
+                default:
+                    System.out.println("Unknown command: " + command);
+            }
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+}
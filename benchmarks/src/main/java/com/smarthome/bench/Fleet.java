@@ -0,0 +1,68 @@
+package com.smarthome.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.AirConditioner;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.Light;
+import com.smarthome.exception.SystemException;
+
+// Shared fixtures for the benchmarks
+final class Fleet {
+    static final int LOCATIONS = 64;
+
+    private static PrintStream console;
+
+    private Fleet() {
+    }
+
+    // Device operations print to the console; silence it so I/O does not dominate the results
+    static synchronized void silenceConsole() {
+        if (console == null) {
+            console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+    }
+
+    static synchronized void restoreConsole() {
+        if (console != null) {
+            System.setOut(console);
+            console = null;
+        }
+    }
+
+    // Half lights, half air conditioners, spread over LOCATIONS rooms
+    static SmartHomeSystem build(int fleetSize) throws SystemException {
+        SmartHomeSystem system = new SmartHomeSystem("Benchmark");
+        system.login("admin", "admin123");
+        for (int i = 0; i < fleetSize; i++) {
+            system.addDevice(newDevice(i));
+        }
+        return system;
+    }
+
+    static Device newDevice(int i) {
+        String location = "Room " + (i % LOCATIONS);
+        return i % 2 == 0
+                ? new Light("L" + i, "Light " + i, location)
+                : new AirConditioner("AC" + i, "AC " + i, location);
+    }
+
+    static String deviceId(int i) {
+        return (i % 2 == 0 ? "L" : "AC") + i;
+    }
+
+    // Removes a temporary data directory and everything under it
+    static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
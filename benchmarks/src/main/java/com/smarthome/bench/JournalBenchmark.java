@@ -0,0 +1,69 @@
+package com.smarthome.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Device;
+import com.smarthome.persistence.StateJournal;
+
+// Journaled mutations per second at each durability level. Every call changes one light's
+// brightness, so every call appends a record; run with more threads to see SYNC's group commit.
+// Checkpoints are pushed past the run so only the journal is measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+    private static final int FLEET_SIZE = 1024;
+
+    @Param({"NONE", "BATCHED", "SYNC"})
+    public StateJournal.Durability durability;
+
+    private SmartHomeSystem system;
+    private Device[] lights;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fleet.silenceConsole();
+        system = Fleet.build(FLEET_SIZE);
+        lights = system.getDevicesByType("Light");
+        system.controlDevices("ON", lights);
+        directory = Files.createTempDirectory("smarthome-journal");
+        system.enableJournal(directory.toString(), durability, TimeUnit.HOURS.toMillis(1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        system.disableJournal();
+        Fleet.deleteRecursively(directory);
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public void controlDevicesBrightness() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Device light = lights[random.nextInt(lights.length)];
+        system.controlDevices("BRIGHTNESS", Integer.toString(random.nextInt(101)), light);
+    }
+}
@@ -0,0 +1,155 @@
+package com.smarthome.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Light;
+import com.smarthome.metrics.LatencyHistogram;
+import com.smarthome.server.CommandServer;
+
+// Drives a CommandServer with many pipelined connections and prints latency percentiles.
+// Each connection logs in, then keeps <depth> CONTROL requests in flight against random
+// lights L0..L1023. Without host:port it starts a local server with those lights.
+// Usage: java -cp target/benchmarks.jar com.smarthome.bench.LoadGenerator
+//            [connections] [depth] [seconds] [host:port]
+public class LoadGenerator {
+    private static final int DEVICES = 1024;
+
+    // One client connection; replies arrive in request order, so send times form a queue
+    private static class Client {
+        private final SocketChannel channel;
+        private final ArrayDeque<Long> sent = new ArrayDeque<>();
+        private final ByteBuffer input = ByteBuffer.allocate(1 << 16);
+        private ByteBuffer output = ByteBuffer.allocate(0);
+        private boolean loggedIn;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        CommandServer server = null;
+        InetSocketAddress address;
+        if (args.length > 3) {
+            String[] hostPort = args[3].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            SmartHomeSystem system = new SmartHomeSystem("LoadTarget");
+            system.login("admin", "admin123");
+            for (int i = 0; i < DEVICES; i++) {
+                system.addDevice(new Light("L" + i, "Light " + i, "Room"));
+            }
+            server = new CommandServer(system, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    Runtime.getRuntime().availableProcessors());
+            server.start();
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        }
+
+        Selector selector = Selector.open();
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel);
+            send(client, "LOGIN admin admin123", System.nanoTime());
+            channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, client);
+        }
+        System.out.println("Connected " + connections + " clients, pipeline depth " + depth);
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        long errors = 0;
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Client client = (Client) key.attachment();
+                if (key.isReadable()) {
+                    errors += readReplies(client, latencies, depth);
+                }
+                if (key.isValid()) {
+                    client.channel.write(client.output);
+                    key.interestOps(client.output.hasRemaining()
+                            ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+        System.out.printf("Requests: %d in %.1fs (%.0f req/s), errors: %d%n",
+                snapshot.getCount(), elapsed, snapshot.getCount() / elapsed, errors);
+        System.out.printf("Latency us: p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f%n",
+                snapshot.percentile(0.50) / 1e3, snapshot.percentile(0.90) / 1e3,
+                snapshot.percentile(0.99) / 1e3, snapshot.percentile(0.999) / 1e3);
+
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private static long readReplies(Client client, LatencyHistogram latencies, int depth) throws IOException {
+        if (client.channel.read(client.input) < 0) {
+            throw new IOException("Server closed the connection");
+        }
+        long errors = 0;
+        long now = System.nanoTime();
+        ByteBuffer input = client.input;
+        input.flip();
+        int lineStart = input.position();
+        for (int i = lineStart; i < input.limit(); i++) {
+            if (input.get(i) == '\n') {
+                if (input.get(lineStart) != 'O') {
+                    errors++;
+                }
+                long sentAt = client.sent.poll();
+                if (client.loggedIn) {
+                    latencies.record(now - sentAt);
+                } else {
+                    client.loggedIn = true;
+                }
+                lineStart = i + 1;
+            }
+        }
+        input.position(lineStart);
+        input.compact();
+
+        // Top the pipeline back up
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (client.loggedIn && client.sent.size() < depth) {
+            send(client, "CONTROL L" + random.nextInt(DEVICES) + (random.nextBoolean() ? " ON" : " OFF"), now);
+        }
+        return errors;
+    }
+
+    private static void send(Client client, String request, long now) {
+        byte[] bytes = (request + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer output = client.output;
+        ByteBuffer merged = ByteBuffer.allocate(output.remaining() + bytes.length);
+        merged.put(output).put(bytes).flip();
+        client.output = merged;
+        client.sent.add(now);
+    }
+}
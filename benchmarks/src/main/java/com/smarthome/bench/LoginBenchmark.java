@@ -0,0 +1,82 @@
+package com.smarthome.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.user.Permission;
+import com.smarthome.user.Session;
+import com.smarthome.user.User;
+
+// Login, permission checks and token validation against a populated user table. Hashing
+// is turned down to 1000 iterations so the table can be built at all; a login at the
+// production count costs a few hundred milliseconds of PBKDF2, by design.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsmarthome.password.iterations=1000")
+public class LoginBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int userCount;
+
+    private SmartHomeSystem system;
+    private Session[] sessions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fleet.silenceConsole();
+        system = new SmartHomeSystem("Benchmark");
+        for (int i = 0; i < userCount; i++) {
+            system.addUser(new User("user" + i, "password" + i));
+        }
+        sessions = new Session[Math.min(userCount, 1024)];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = system.openSession("user" + i, "password" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public boolean login() {
+        int i = ThreadLocalRandom.current().nextInt(userCount);
+        return system.login("user" + i, "password" + i);
+    }
+
+    @Benchmark
+    public boolean loginWrongPassword() {
+        int i = ThreadLocalRandom.current().nextInt(userCount);
+        return system.login("user" + i, "wrong");
+    }
+
+    @Benchmark
+    public boolean hasPermission() {
+        Session session = sessions[ThreadLocalRandom.current().nextInt(sessions.length)];
+        return session.hasPermission(Permission.ADMIN_ADD_DEVICE);
+    }
+
+    @Benchmark
+    public Session validateToken() {
+        Session session = sessions[ThreadLocalRandom.current().nextInt(sessions.length)];
+        return system.getSession(session.getToken());
+    }
+}
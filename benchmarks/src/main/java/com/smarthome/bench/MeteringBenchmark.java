@@ -0,0 +1,60 @@
+package com.smarthome.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.DeviceQuery;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.energy.EnergyReport;
+import com.smarthome.energy.MeteringEngine;
+
+// Latency of one fleet-wide metering tick, including the per-location and per-type
+// roll-up, by fleet size and fork-join parallelism. Every device is on, so every slot
+// accrues energy. Ticks serialize on the store, so the core-count axis is parallelism;
+// extra benchmark threads only queue behind each other.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeteringBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int fleetSize;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private MeteringEngine metering;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fleet.silenceConsole();
+        SmartHomeSystem system = Fleet.build(fleetSize);
+        system.controlDevices("ON", system.findDevices(new DeviceQuery()));
+        metering = new MeteringEngine(system::getEnergyStore, 1000, parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public EnergyReport tick() {
+        return metering.tick();
+    }
+}
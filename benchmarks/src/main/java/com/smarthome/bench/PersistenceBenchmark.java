@@ -0,0 +1,61 @@
+package com.smarthome.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.SmartHomeSystem;
+
+// Full save and load of the system state file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+    @Param({"100", "10000", "1000000"})
+    public int fleetSize;
+
+    private SmartHomeSystem system;
+    private SmartHomeSystem target;
+    private File stateFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fleet.silenceConsole();
+        system = Fleet.build(fleetSize);
+        target = new SmartHomeSystem("Benchmark");
+        stateFile = File.createTempFile("smarthome-bench", ".state");
+        system.saveSystemState(stateFile.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stateFile.delete();
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public void saveSystemState() {
+        system.saveSystemState(stateFile.getPath());
+    }
+
+    @Benchmark
+    public void loadSystemState() {
+        target.loadSystemState(stateFile.getPath());
+    }
+}
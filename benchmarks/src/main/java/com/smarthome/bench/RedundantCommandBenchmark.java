@@ -0,0 +1,97 @@
+package com.smarthome.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.Light;
+import com.smarthome.exception.DeviceOperationException;
+
+// ON sent to lights that are already ON, as re-firing rules do.
+// exceptionWithStackTrace reproduces the cost of the old throwing path for comparison;
+// the other cases are the current throwing, result-code and control() paths.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedundantCommandBenchmark {
+    private static final int DEVICES = 1024;
+
+    private Device[] lights;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fleet.silenceConsole();
+        lights = new Device[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            lights[i] = new Light("L" + i, "Light " + i, "Room");
+            lights[i].switchPower(true);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public Object exceptionWithStackTrace() {
+        Device light = next();
+        synchronized (light) {
+            try {
+                if (light.isOn()) {
+                    throw new Exception("Device is already ON");
+                }
+                return null;
+            } catch (Exception e) {
+                return e;
+            }
+        }
+    }
+
+    @Benchmark
+    public Object turnOnStackless() {
+        try {
+            next().turnOn();
+            return null;
+        } catch (DeviceOperationException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Transition switchPower() {
+        return next().switchPower(true);
+    }
+
+    @Benchmark
+    public Transition applyTyped() {
+        return next().apply(DeviceCommand.ON, 0);
+    }
+
+    @Benchmark
+    public void controlString() {
+        next().control("ON");
+    }
+
+    private Device next() {
+        return lights[ThreadLocalRandom.current().nextInt(DEVICES)];
+    }
+}
@@ -0,0 +1,120 @@
+package com.smarthome.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Device;
+
+// Device lookup by id and by type, against the linear scans over a plain device array
+// that the indexed registry replaced
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+    @Param({"100", "10000", "1000000"})
+    public int fleetSize;
+
+    private SmartHomeSystem system;
+    private String[] ids;
+    private Device[] array;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fleet.silenceConsole();
+        system = Fleet.build(fleetSize);
+        ids = new String[Math.min(fleetSize, 4096)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Fleet.deviceId(ThreadLocalRandom.current().nextInt(fleetSize));
+        }
+        array = new Device[fleetSize];
+        for (int i = 0; i < fleetSize; i++) {
+            array[i] = system.getDevice(Fleet.deviceId(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public Device getDevice() {
+        return system.getDevice(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+
+    @Benchmark
+    public Device[] getDevicesByType() {
+        return system.getDevicesByType("Light");
+    }
+
+    @Benchmark
+    public Device getDeviceByScan() {
+        String deviceId = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        for (Device device : array) {
+            if (device.getDeviceId().equals(deviceId)) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    // Counts, then fills an exact-size result, as the array-backed lookup did
+    @Benchmark
+    public Device[] getDevicesByTypeByScan() {
+        int count = 0;
+        for (Device device : array) {
+            if (device.getDeviceType().equals("Light")) {
+                count++;
+            }
+        }
+        Device[] result = new Device[count];
+        int index = 0;
+        for (Device device : array) {
+            if (device.getDeviceType().equals("Light")) {
+                result[index++] = device;
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Device[] getDevicesByLocation() {
+        return system.getDevicesByLocation("Room 7");
+    }
+
+    @Benchmark
+    public Device[] getDevicesByLocationByScan() {
+        int count = 0;
+        for (Device device : array) {
+            if (device.getLocation().equals("Room 7")) {
+                count++;
+            }
+        }
+        Device[] result = new Device[count];
+        int index = 0;
+        for (Device device : array) {
+            if (device.getLocation().equals("Room 7")) {
+                result[index++] = device;
+            }
+        }
+        return result;
+    }
+}
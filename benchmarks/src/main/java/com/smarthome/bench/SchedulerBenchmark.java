@@ -0,0 +1,123 @@
+package com.smarthome.bench;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.smarthome.automation.TaskScheduler;
+
+// Timer insert, cancel and fire throughput of the timing wheel, with and without a
+// backlog of far-future timers already pending. Time is driven by advanceTo on a fixed
+// clock and due tasks run on the advancing thread, so only the wheel is measured.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark {
+    private static final int BATCH = 1024;
+    private static final long TICK_MILLIS = 100;
+    private static final long HORIZON_MILLIS = 60_000;
+
+    @Param({"0", "1000000"})
+    public int backlog;
+
+    private TaskScheduler scheduler;
+    private String[] ids;
+    private long now;
+    private long fired;
+
+    // Runs tasks on the calling thread
+    private static class DirectExecutor extends AbstractExecutorService {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+        scheduler = new TaskScheduler(Clock.fixed(start, ZoneOffset.UTC), TICK_MILLIS, new DirectExecutor());
+        now = start.toEpochMilli();
+        ids = new String[BATCH];
+        // Parked a year out, so they stay pending for the whole run
+        long far = now + TimeUnit.DAYS.toMillis(365);
+        for (int i = 0; i < backlog; i++) {
+            scheduler.schedule(far + i, 0, this::fire);
+        }
+    }
+
+    private void fire() {
+        fired++;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void scheduleThenCancel() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < BATCH; i++) {
+            ids[i] = scheduler.schedule(now + random.nextLong(HORIZON_MILLIS), 0, this::fire);
+        }
+        for (int i = 0; i < BATCH; i++) {
+            scheduler.cancel(ids[i]);
+        }
+    }
+
+    // Schedules a batch within the horizon, then advances past it so every timer fires
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void scheduleThenFire(Blackhole blackhole) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < BATCH; i++) {
+            scheduler.schedule(now + 1 + random.nextLong(HORIZON_MILLIS), 0, this::fire);
+        }
+        now += HORIZON_MILLIS + TICK_MILLIS;
+        scheduler.advanceTo(now);
+        blackhole.consume(fired);
+    }
+}
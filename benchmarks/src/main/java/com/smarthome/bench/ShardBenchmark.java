@@ -0,0 +1,81 @@
+package com.smarthome.bench;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.devices.Light;
+import com.smarthome.shard.ShardedSystem;
+
+// Commands per second through a ShardedSystem as the shard count grows. Four producer
+// threads each send batches of power toggles to random devices and wait for the batch;
+// per-shard FIFO order means waiting on each shard's last command covers the batch.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ShardBenchmark {
+    private static final int DEVICES = 65536;
+    private static final int BATCH = 1024;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int shards;
+
+    private ShardedSystem system;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fleet.silenceConsole();
+        system = new ShardedSystem(shards);
+        ids = new String[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            ids[i] = "L" + i;
+            system.addDevice(new Light(ids[i], "Light " + i, "Room"));
+        }
+        system.addDevice(new Light("last", "Last", "Room")).join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        system.shutdown();
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void commands() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CompletableFuture<?>[] last = new CompletableFuture<?>[shards];
+        for (int i = 0; i < BATCH; i++) {
+            String id = ids[random.nextInt(DEVICES)];
+            DeviceCommand command = (i & 1) == 0 ? DeviceCommand.ON : DeviceCommand.OFF;
+            last[system.shardOf(id)] = system.control(id, command, 0);
+        }
+        for (CompletableFuture<?> future : last) {
+            if (future != null) {
+                future.join();
+            }
+        }
+    }
+}
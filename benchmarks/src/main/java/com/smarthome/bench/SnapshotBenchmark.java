@@ -0,0 +1,94 @@
+package com.smarthome.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smarthome.core.DeviceQuery;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Device;
+
+// Save and load of the binary snapshot against the legacy text format. Text saves use the
+// old PrintWriter loop; text loads go through loadSystemState's TextStateLoader fallback.
+// File sizes are printed to stderr once per trial. The heap is fixed so the source and
+// target systems both fit at a million devices.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class SnapshotBenchmark {
+    @Param({"100", "10000", "1000000"})
+    public int fleetSize;
+
+    @Param({"binary", "text"})
+    public String format;
+
+    private SmartHomeSystem system;
+    private SmartHomeSystem target;
+    private Device[] devices;
+    private File stateFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fleet.silenceConsole();
+        system = Fleet.build(fleetSize);
+        target = new SmartHomeSystem("Benchmark");
+        devices = system.findDevices(new DeviceQuery());
+        stateFile = File.createTempFile("smarthome-bench", "." + format);
+        saveSystemState();
+        System.err.printf("%s format, %d devices: %d bytes%n", format, fleetSize, stateFile.length());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stateFile.delete();
+        Fleet.restoreConsole();
+    }
+
+    @Benchmark
+    public void saveSystemState() throws IOException {
+        if (format.equals("binary")) {
+            system.saveSystemState(stateFile.getPath());
+        } else {
+            saveText(stateFile.getPath());
+        }
+    }
+
+    @Benchmark
+    public void loadSystemState() {
+        target.loadSystemState(stateFile.getPath());
+    }
+
+    // The pre-snapshot writer: one comma-separated line per device
+    private void saveText(String filename) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
+            writer.println("SYSTEM:" + system.getConfig().getSystemInfo());
+            writer.println("DEVICES:" + devices.length);
+            for (Device device : devices) {
+                writer.println(device.getDeviceType() + ","
+                        + device.getDeviceId() + ","
+                        + device.getName() + ","
+                        + device.getLocation() + ","
+                        + device.isOn());
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.automation.Automation;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Light;
+import com.smarthome.events.DeviceEventBus;
+import com.smarthome.exception.AutomationException;
+import com.smarthome.persistence.StateJournal;
+
+// Event-indexed rules, including time-based rules that have no trigger device, condition
+// rules fed from the device event bus, and the trigger cycle check on condition rules
+class AutomationTest {
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @Test
+    void timeBasedRuleFiresOnNullTrigger() throws Exception {
+        Automation automation = new Automation();
+        Light light = new Light("L1", "Light", "Room");
+        automation.createRule("Night", "sunset", "ON", light);
+
+        automation.triggerEvent(light, "sunset");
+        assertFalse(light.isOn());
+        automation.triggerEvent(null, "sunset");
+        assertTrue(light.isOn());
+
+        assertTrue(automation.removeRule("Night"));
+        light.turnOff();
+        automation.triggerEvent(null, "sunset");
+        assertFalse(light.isOn());
+    }
+
+    @Test
+    void rulesAreListedInCreationOrder() throws Exception {
+        Automation automation = new Automation();
+        Light light = new Light("L1", "Light", "Room");
+        String[] names = {"zeta", "alpha", "mid", "beta", "omega"};
+        for (String name : names) {
+            automation.createRule(name, light, "motion", "ON", light);
+        }
+        automation.removeRule("mid");
+        automation.createRule("mid", light, "motion", "OFF", light);
+
+        Automation.Rule[] rules = automation.getRules();
+        String[] expected = {"zeta", "alpha", "beta", "omega", "mid"};
+        assertEquals(expected.length, rules.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], rules[i].getRuleName());
+        }
+    }
+
+    @Test
+    void timeBasedRuleSurvivesJournalReplay() throws Exception {
+        Path directory = Files.createTempDirectory("smarthome-rules");
+        try {
+            SmartHomeSystem system = new SmartHomeSystem("Rules");
+            system.login("admin", "admin123");
+            system.enableJournal(directory.toString(), StateJournal.Durability.SYNC, 60_000);
+            system.addDevice(new Light("L1", "Light", "Room"));
+            system.getAutomation().createRule("Night", "sunset", "ON", system.getDevice("L1"));
+            system.disableJournal();
+
+            SmartHomeSystem recovered = new SmartHomeSystem("Rules");
+            recovered.enableJournal(directory.toString(), StateJournal.Durability.SYNC, 60_000);
+            try {
+                Automation.Rule rule = recovered.getAutomation().getRule("Night");
+                assertNotNull(rule);
+                assertNull(rule.getTriggerDevice());
+                recovered.getAutomation().triggerEvent(null, "sunset");
+                assertTrue(recovered.getDevice("L1").isOn());
+            } finally {
+                recovered.disableJournal();
+            }
+        } finally {
+            Fleet.deleteRecursively(directory);
+        }
+    }
+
+    // Delivery is held back while the rest of the fleet changes, far more devices than any
+    // fixed buffer; the watched device's event must still reach its rule
+    @Test
+    void conditionRuleFiresThroughAnEventStorm() throws Exception {
+        Queue<Runnable> delivery = new ArrayDeque<>();
+        DeviceEventBus events = new DeviceEventBus(delivery::add);
+        Automation automation = new Automation();
+        automation.subscribeTo(events);
+        Light trigger = new Light("T", "Trigger", "Room");
+        Light target = new Light("A", "Target", "Room");
+        trigger.control("BRIGHTNESS", "20");
+        automation.createRule("Bright", trigger, "brightness > 50", "ON", target);
+
+        trigger.control("BRIGHTNESS", "80");
+        events.deviceChanged(trigger);
+        for (int i = 0; i < 20_000; i++) {
+            Light other = new Light("L" + i, "Other", "Hall");
+            other.turnOn();
+            events.deviceChanged(other);
+        }
+        while (!delivery.isEmpty()) {
+            delivery.poll().run();
+        }
+
+        assertTrue(target.isOn());
+        assertEquals(0, events.getDroppedCount());
+    }
+
+    @Test
+    void conditionRuleClosingACycleIsRejected() throws Exception {
+        Automation automation = new Automation();
+        Light a = new Light("A", "Light", "Room");
+        Light b = new Light("B", "Light", "Room");
+        Light c = new Light("C", "Light", "Room");
+        automation.createRule("AB", a, "brightness > 50", "ON", b);
+        automation.createRule("BC", b, "brightness > 50", "ON", c);
+
+        assertThrows(AutomationException.class,
+                () -> automation.createRule("CA", c, "brightness > 50", "ON", a));
+        assertThrows(AutomationException.class,
+                () -> automation.createRule("AA", a, "brightness > 50", "OFF", a));
+        assertNull(automation.getRule("CA"));
+        assertNull(automation.getRule("AA"));
+        assertEquals(2, automation.getRuleCount());
+
+        // Plain event rules do not feed back on their own, so they add no edges
+        automation.createRule("Motion", c, "motion", "ON", a);
+        // Removing a rule removes its edge, and the rule that needed it is accepted
+        assertTrue(automation.removeRule("BC"));
+        automation.createRule("CA", c, "brightness > 50", "ON", a);
+        assertFalse(automation.getRule("CA").isCyclic());
+    }
+
+    // Four rules that toggle each other forever; the depth bound ends the cascade
+    @Test
+    void flaggedCycleIsAcceptedAndStillTerminates() throws Exception {
+        Automation automation = new Automation();
+        automation.setCyclePolicy(Automation.CyclePolicy.FLAG);
+        automation.setCascadeLimits(4, 100);
+        Light a = new Light("A", "Light", "Room");
+        Light b = new Light("B", "Light", "Room");
+        automation.createRule("A on", a, "on == true", "ON", b);
+        automation.createRule("B on", b, "on == true", "OFF", a);
+        automation.createRule("A off", a, "on == false", "OFF", b);
+        automation.createRule("B off", b, "on == false", "ON", a);
+        assertFalse(automation.getRule("A on").isCyclic());
+        assertTrue(automation.getRule("B on").isCyclic());
+        assertTrue(automation.getRule("A off").isCyclic());
+        assertTrue(automation.getRule("B off").isCyclic());
+
+        a.turnOn();
+        automation.deviceChanged(a, a.isOn(), a.getStateValue(), a.getStateText());
+        // Levels: B on, A off, B off, A on; then the fifth level is cut
+        assertTrue(a.isOn());
+        assertFalse(b.isOn());
+    }
+}
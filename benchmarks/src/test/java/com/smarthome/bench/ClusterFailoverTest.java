@@ -0,0 +1,112 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.cluster.ClusterNode;
+import com.smarthome.cluster.LocalTransport;
+import com.smarthome.cluster.SocketTransport;
+import com.smarthome.cluster.Transport;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.Light;
+
+// An acknowledged command must survive the loss of the device's owner: the owner is shut
+// down right after the ack, and the next read through another node must see the new state
+// on the promoted follower.
+class ClusterFailoverTest {
+    private static final List<String> NODES = List.of("node-a", "node-b", "node-c");
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @Test
+    void acknowledgedCommandSurvivesOwnerLossOverLocalTransport() throws Exception {
+        LocalTransport transport = new LocalTransport();
+        try {
+            killOwnerBetweenAckAndRead(transport);
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    void acknowledgedCommandSurvivesOwnerLossOverSockets() throws Exception {
+        Map<String, InetSocketAddress> addresses = new HashMap<>();
+        for (String node : NODES) {
+            addresses.put(node, new InetSocketAddress(InetAddress.getLoopbackAddress(), freePort()));
+        }
+        SocketTransport transport = new SocketTransport(addresses, 2000);
+        try {
+            killOwnerBetweenAckAndRead(transport);
+        } finally {
+            transport.close();
+        }
+    }
+
+    private static void killOwnerBetweenAckAndRead(Transport transport) throws Exception {
+        Map<String, ClusterNode> members = new HashMap<>();
+        for (String node : NODES) {
+            SmartHomeSystem system = new SmartHomeSystem(node);
+            members.put(node, new ClusterNode(node, system, system.openSession("admin", "admin123"), transport, NODES));
+        }
+        try {
+            // A device owned by some node other than the one the client talks to
+            ClusterNode entry = members.get("node-a");
+            String deviceId = null;
+            for (int i = 0; deviceId == null; i++) {
+                if (!entry.ownerOf("L" + i).equals(entry.getNodeId())) {
+                    deviceId = "L" + i;
+                }
+            }
+            String owner = entry.ownerOf(deviceId);
+            String follower = entry.getRing().followerOf(deviceId);
+            assertTrue(entry.addDevice(new Light(deviceId, "Light", "Room")).get(10, TimeUnit.SECONDS));
+
+            assertEquals(Transition.CHANGED, entry.control(deviceId, "ON").get(10, TimeUnit.SECONDS));
+            assertEquals(Transition.CHANGED, entry.control(deviceId, "BRIGHTNESS", "37").get(10, TimeUnit.SECONDS));
+            members.remove(owner).shutdown();
+
+            // Repeating the acknowledged command is a no-op only if the new owner already has it
+            assertEquals(Transition.NO_OP, entry.control(deviceId, "BRIGHTNESS", "37").get(10, TimeUnit.SECONDS));
+            assertNotEquals(owner, entry.ownerOf(deviceId));
+            assertEquals(follower, entry.ownerOf(deviceId));
+
+            Device promoted = members.get(follower).getSystem().getDevice(deviceId);
+            assertTrue(promoted.isOn());
+            assertEquals(37, promoted.getStateValue());
+        } finally {
+            for (ClusterNode member : members.values()) {
+                member.shutdown();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.CommandPipeline;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.Light;
+
+// Per-device command queues: futures carry each command's outcome, a merged batch keeps
+// the order the commands were submitted in, and drained queues are dropped
+class CommandPipelineTest {
+    // Records the commands that actually reach the device
+    private static class RecordingLight extends Light {
+        final List<String> applied = new CopyOnWriteArrayList<>();
+
+        RecordingLight(String deviceId) {
+            super(deviceId, "Recording", "Room");
+        }
+
+        @Override
+        public Transition apply(String command, String... parameters) {
+            applied.add(parameters.length == 0 ? command : command + " " + parameters[0]);
+            return super.apply(command, parameters);
+        }
+    }
+
+    private CommandPipeline pipeline;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() {
+        // A long window so each test's commands land in one batch
+        pipeline = new CommandPipeline(2, 200);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    void futuresCompleteWithTheAppliedTransition() throws Exception {
+        Light light = new Light("L1", "Light", "Room");
+        CompletableFuture<Transition> on = pipeline.submit(light, "ON");
+        CompletableFuture<Transition> bad = pipeline.submit(light, "BRIGHTNESS", "400");
+        CompletableFuture<Transition> unknown = pipeline.submit(light, "FROB");
+
+        assertEquals(Transition.CHANGED, on.get(10, TimeUnit.SECONDS));
+        assertEquals(Transition.REJECTED, bad.get(10, TimeUnit.SECONDS));
+        assertEquals(Transition.REJECTED, unknown.get(10, TimeUnit.SECONDS));
+        assertEquals(Transition.NO_OP, pipeline.submit(light, "ON").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void mergedBatchKeepsSubmissionOrder() throws Exception {
+        RecordingLight light = new RecordingLight("L1");
+        CompletableFuture<Transition> dim = pipeline.submit(light, "BRIGHTNESS", "10");
+        pipeline.submit(light, "ON");
+        CompletableFuture<Transition> last = pipeline.submit(light, "BRIGHTNESS", "40");
+
+        assertEquals(Transition.CHANGED, last.get(10, TimeUnit.SECONDS));
+        // The superseded command shares the outcome of the one applied in its place
+        assertEquals(Transition.CHANGED, dim.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of("ON", "BRIGHTNESS 40"), light.applied);
+        assertTrue(light.isOn());
+        assertEquals(40, light.getStateValue());
+    }
+
+    @Test
+    void drainedQueuesAreEvicted() throws Exception {
+        pipeline.setBatchWindowMillis(0);
+        for (int i = 0; i < 100; i++) {
+            pipeline.submit(new Light("L" + i, "Light", "Room"), "ON").get(10, TimeUnit.SECONDS);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pipeline.getActiveDeviceCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, pipeline.getActiveDeviceCount());
+
+        // A device whose queue was evicted still gets a fresh one
+        Light light = new Light("L0", "Light", "Room");
+        assertEquals(Transition.CHANGED, pipeline.submit(light, "ON").get(10, TimeUnit.SECONDS));
+        assertEquals(Transition.CHANGED, pipeline.submit(light, "OFF").get(10, TimeUnit.SECONDS));
+        assertFalse(light.isOn());
+    }
+
+    // Shutting down just as a queue drains must not strand the next command; the race
+    // window is narrow, so go round many times
+    @Test
+    void commandsAfterShutdownFail() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            CommandPipeline stopping = new CommandPipeline(1, 0);
+            Light light = new Light("L" + i, "Light", "Room");
+            assertEquals(Transition.CHANGED, stopping.submit(light, "ON").get(10, TimeUnit.SECONDS));
+            stopping.shutdown();
+            CompletableFuture<Transition> after = stopping.submit(light, "OFF");
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> after.get(10, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.Light;
+import com.smarthome.server.CommandServer;
+
+// The line protocol driven over a real socket: one reply per request, in order, and a
+// failing request answers ERR without stalling the requests pipelined behind it
+class CommandServerTest {
+    // Fails with an unchecked exception on one brightness value, like a buggy driver
+    private static class FaultyLight extends Light {
+        FaultyLight(String deviceId, String name, String location) {
+            super(deviceId, name, location);
+        }
+
+        @Override
+        public synchronized Transition apply(DeviceCommand command, int value) {
+            if (command == DeviceCommand.BRIGHTNESS && value == 13) {
+                throw new IllegalStateException("driver fault");
+            }
+            return super.apply(command, value);
+        }
+    }
+
+    private SmartHomeSystem system;
+    private CommandServer server;
+    private Socket socket;
+    private BufferedReader in;
+    private OutputStream out;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        system = new SmartHomeSystem("Server");
+        system.login("admin", "admin123");
+        system.addDevice(new Light("L1", "Lamp", "Hall"));
+        system.addDevice(new FaultyLight("F1", "Faulty", "Hall"));
+        server = new CommandServer(system, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        server.start();
+        socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setSoTimeout(10_000);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = socket.getOutputStream();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        socket.close();
+        server.stop();
+    }
+
+    @Test
+    void answersEachRequestInOrder() throws Exception {
+        send("GET L1");
+        assertEquals("ERR not logged in", in.readLine());
+
+        send("LOGIN admin admin123");
+        assertTrue(in.readLine().startsWith("OK "));
+        // Pipelined: all four go out before any reply is read
+        send("CONTROL L1 ON\nCONTROL L1 ON\nCONTROL L1 BRIGHTNESS 40\nGET L1");
+        assertEquals("OK CHANGED", in.readLine());
+        assertEquals("OK NO_OP", in.readLine());
+        assertEquals("OK CHANGED", in.readLine());
+        assertEquals("OK L1 Light ON 40 - Hall", in.readLine());
+
+        send("CONTROL L1 BRIGHTNESS 400");
+        assertEquals("OK REJECTED", in.readLine());
+        send("CONTROL NOPE ON");
+        assertEquals("ERR Unknown device: NOPE", in.readLine());
+        send("RULE Night - ON L1 sunset");
+        assertEquals("OK", in.readLine());
+        send("FROB");
+        assertEquals("ERR unknown command FROB", in.readLine());
+
+        send("QUIT\nGET L1");
+        assertEquals("OK", in.readLine());
+        assertNull(in.readLine());
+    }
+
+    @Test
+    void unexpectedFailureRepliesAndKeepsTheConnection() throws Exception {
+        send("LOGIN admin admin123");
+        assertTrue(in.readLine().startsWith("OK "));
+        send("CONTROL F1 BRIGHTNESS 13\nCONTROL F1 BRIGHTNESS 14\nGET F1");
+        assertEquals("ERR internal error", in.readLine());
+        assertEquals("OK CHANGED", in.readLine());
+        assertEquals("OK F1 Light OFF 14 - Hall", in.readLine());
+    }
+
+    private void send(String lines) throws Exception {
+        out.write((lines + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
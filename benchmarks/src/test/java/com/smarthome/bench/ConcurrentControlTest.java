@@ -0,0 +1,191 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.DeviceQuery;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.Light;
+import com.smarthome.location.LocationNode;
+import com.smarthome.user.Session;
+
+// Many threads, each with its own session, drive the same devices at once. The final
+// device states, the location aggregates and the energy totals must come out exactly as
+// if the work had run serially: no lost updates and no missed rule firings.
+class ConcurrentControlTest {
+    private static final int THREADS = 8;
+    private static final int DEVICES = 64;
+    private static final int ROUNDS = 500;
+
+    private SmartHomeSystem system;
+    private ExecutorService pool;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() {
+        system = new SmartHomeSystem("Stress");
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        pool.shutdownNow();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    // Every thread meters every light while the others re-send redundant commands; each
+    // tick must land, so the totals are exactly threads * rounds * power per device
+    @Test
+    void concurrentTicksLoseNoEnergy() throws Exception {
+        Session admin = system.openSession("admin", "admin123");
+        Device[] lights = new Device[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            lights[i] = new Light("L" + i, "Light " + i, "Room");
+            system.addDevice(admin, lights[i]);
+        }
+        system.controlDevices(admin, "ON", lights);
+        system.controlDevices(admin, "BRIGHTNESS", "100", lights);
+        double power = lights[0].getPowerDraw();
+
+        runOnAllThreads(barrier -> {
+            Session session = system.openSession("admin", "admin123");
+            for (int round = 0; round < ROUNDS; round++) {
+                for (Device light : lights) {
+                    light.updateEnergyConsumption();
+                }
+                Device light = lights[ThreadLocalRandom.current().nextInt(DEVICES)];
+                system.controlDevices(session, round % 2 == 0 ? "ON" : "BRIGHTNESS", "100", light);
+            }
+        });
+
+        double expected = THREADS * ROUNDS * power;
+        for (Device light : lights) {
+            assertEquals(expected, light.getEnergyConsumption(), 1e-9, light.getDeviceId());
+        }
+        assertEquals(DEVICES * expected, system.getEnergyStore().getTotal(), 1e-6);
+        assertEquals(DEVICES * expected, system.getEnergyStore().getTotalByLocation("Room"), 1e-6);
+    }
+
+    // Threads fight over triggers and targets with random commands while adding their own
+    // devices, then all drive the triggers over the rule threshold. Every rule must fire,
+    // and the registry and location tree must agree with the devices themselves.
+    @Test
+    void concurrentControlAndRulesConverge() throws Exception {
+        Session admin = system.openSession("admin", "admin123");
+        Device[] triggers = new Device[DEVICES];
+        Device[] targets = new Device[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            triggers[i] = new Light("T" + i, "Trigger " + i, "Main/1/Hall");
+            targets[i] = new Light("A" + i, "Target " + i, "Main/2/Room");
+            system.addDevice(admin, triggers[i]);
+            system.addDevice(admin, targets[i]);
+            system.getAutomation().createRule("R" + i, triggers[i], "brightness > 50", "ON", targets[i]);
+        }
+
+        runOnAllThreads(barrier -> {
+            Session session = system.openSession("admin", "admin123");
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String prefix = "X" + Thread.currentThread().getId() + "-";
+            // Churn below the threshold, so no rule can have fired before the final phase
+            for (int round = 0; round < ROUNDS; round++) {
+                Device trigger = triggers[random.nextInt(DEVICES)];
+                Device target = targets[random.nextInt(DEVICES)];
+                system.controlDevices(session, random.nextBoolean() ? "ON" : "OFF", trigger, target);
+                system.controlDevices(session, "BRIGHTNESS", Integer.toString(random.nextInt(51)), trigger);
+                system.controlDevices(session, "OFF", target);
+                if (round % 10 == 0) {
+                    system.addDevice(session, new Light(prefix + round, "Extra", "Main/3/Store"));
+                }
+            }
+            // From here on only the rules may turn a target on
+            if (barrier.await() == 0) {
+                system.controlDevices(session, "OFF", targets);
+            }
+            barrier.await();
+            for (Device trigger : triggers) {
+                system.controlDevices(session, "ON", trigger);
+                system.controlDevices(session, "BRIGHTNESS", "80", trigger);
+            }
+        });
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!allOn(targets) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < DEVICES; i++) {
+            assertTrue(triggers[i].isOn(), triggers[i].getDeviceId());
+            assertEquals(80, triggers[i].getStateValue(), triggers[i].getDeviceId());
+            assertTrue(targets[i].isOn(), targets[i].getDeviceId());
+        }
+
+        int extras = THREADS * ((ROUNDS + 9) / 10);
+        Device[] all = system.findDevices(new DeviceQuery());
+        assertEquals(2 * DEVICES + extras, all.length);
+        assertEquals(extras, system.getDevicesByLocation("Main/3/Store").length);
+        int on = 0;
+        for (Device device : all) {
+            assertNotNull(system.getDevice(device.getDeviceId()));
+            on += device.isOn() ? 1 : 0;
+        }
+        LocationNode root = system.getLocations().getRoot();
+        assertEquals(all.length, root.getDeviceCount());
+        assertEquals(on, root.getOnCount());
+        assertEquals(2 * DEVICES, on);
+    }
+
+    private interface Work {
+        void run(CyclicBarrier barrier) throws Exception;
+    }
+
+    // Starts the work on every thread at once and rethrows the first failure
+    private void runOnAllThreads(Work work) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                work.run(barrier);
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private static boolean allOn(Device[] devices) {
+        for (Device device : devices) {
+            if (!device.isOn()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
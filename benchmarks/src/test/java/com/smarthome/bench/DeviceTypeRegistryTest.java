@@ -0,0 +1,144 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.DeviceType;
+import com.smarthome.devices.DeviceTypeRegistry;
+import com.smarthome.devices.Light;
+import com.smarthome.devices.SmartPlug;
+
+// Device types listed in META-INF/services are registered by ServiceLoader and then load
+// from state files like the built-in ones; a provider that fails to load is
+// skipped without losing the others
+class DeviceTypeRegistryTest {
+    // A plugin type; ServiceLoader needs it public with a public no-arg constructor
+    public static class KettleType implements DeviceType {
+        @Override
+        public String getName() {
+            return "Kettle";
+        }
+
+        @Override
+        public Device create(String deviceId, String name, String location) {
+            return new Kettle(deviceId, name, location);
+        }
+    }
+
+    static class Kettle extends SmartPlug {
+        Kettle(String deviceId, String name, String location) {
+            super(deviceId, name, location);
+        }
+
+        @Override
+        public String getDeviceType() {
+            return "Kettle";
+        }
+    }
+
+    private Path directory;
+    private DeviceTypeRegistry previous;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("smarthome-plugins");
+        previous = DeviceTypeRegistry.getDefault();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        DeviceTypeRegistry.setDefault(previous);
+        Fleet.deleteRecursively(directory);
+    }
+
+    @Test
+    void listedTypeIsRegisteredAndLoads() throws Exception {
+        DeviceTypeRegistry registry = new DeviceTypeRegistry();
+        assertFalse(registry.isRegistered("Kettle"));
+        try (URLClassLoader loader = plugins(KettleType.class.getName())) {
+            assertEquals(1, registry.loadPlugins(loader));
+        }
+        assertTrue(registry.isRegistered("Kettle"));
+        assertTrue(registry.getTypeNames().contains("Light"));
+
+        // Every load path goes through the system's registry
+        DeviceTypeRegistry.setDefault(registry);
+        SmartHomeSystem system = new SmartHomeSystem("Plugins");
+        try {
+            system.login("admin", "admin123");
+            Path text = directory.resolve("state.txt");
+            Files.writeString(text, "SYSTEM:Plugins\nDEVICES:2\nKettle,K1,Kettle,Home/Kitchen,true\nLight,L1,Lamp,Home/Hall,false\n");
+            system.loadSystemState(text.toString());
+            Device kettle = system.getDevice("K1");
+            assertTrue(kettle instanceof Kettle);
+            assertTrue(kettle.isOn());
+            assertTrue(system.getDevice("L1") instanceof Light);
+
+            // And the type survives a binary snapshot round trip
+            Path binary = directory.resolve("state.bin");
+            system.saveSystemState(binary.toString());
+            SmartHomeSystem restored = new SmartHomeSystem("Plugins");
+            try {
+                restored.loadSystemState(binary.toString());
+                assertTrue(restored.getDevice("K1") instanceof Kettle);
+                assertTrue(restored.getDevice("K1").isOn());
+            } finally {
+                restored.shutdown();
+            }
+        } finally {
+            system.shutdown();
+        }
+    }
+
+    @Test
+    void brokenListingIsSkipped() throws Exception {
+        DeviceTypeRegistry registry = new DeviceTypeRegistry();
+        try (URLClassLoader loader = plugins("com.example.MissingType", KettleType.class.getName())) {
+            assertEquals(1, registry.loadPlugins(loader));
+        }
+        assertTrue(registry.isRegistered("Kettle"));
+        assertNull(registry.create("MissingType", "X1", "Missing", "Home"));
+        assertEquals(6, registry.getTypeNames().size());
+    }
+
+    @Test
+    void laterRegistrationReplacesABuiltIn() {
+        DeviceTypeRegistry registry = new DeviceTypeRegistry();
+        registry.register(DeviceType.of("Light", Kettle::new));
+        assertTrue(registry.create("Light", "L1", "Lamp", "Home") instanceof Kettle);
+    }
+
+    // A class loader whose only service listing names the given provider classes
+    private URLClassLoader plugins(String... providers) throws Exception {
+        Path services = Files.createDirectories(directory.resolve("classes/META-INF/services"));
+        Files.write(services.resolve(DeviceType.class.getName()), List.of(providers));
+        return new URLClassLoader(new URL[] {directory.resolve("classes").toUri().toURL()},
+                getClass().getClassLoader());
+    }
+}
@@ -0,0 +1,85 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.AirConditioner;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.Light;
+
+// Energy accrues by one formula whether the fleet ticks in bulk or one device at a time,
+// and shutting a system down releases its metering and command pools
+class EnergyTest {
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @Test
+    void singleDeviceTickMatchesTheBulkTick() throws Exception {
+        SmartHomeSystem bulk = fleet();
+        SmartHomeSystem single = fleet();
+        long tickMillis = bulk.getMetering().getTickMillis();
+        try {
+            bulk.tickEnergy();
+            for (String deviceId : new String[] {"L1", "A1"}) {
+                single.getDevice(deviceId).updateEnergyConsumption(tickMillis);
+            }
+            for (String deviceId : new String[] {"L1", "A1"}) {
+                Device device = bulk.getDevice(deviceId);
+                double expected = device.getPowerDraw() * tickMillis / 3_600_000.0;
+                assertEquals(expected, device.getEnergyConsumption(), 1e-12, deviceId);
+                assertEquals(expected, single.getDevice(deviceId).getEnergyConsumption(), 1e-12, deviceId);
+            }
+
+            // A device not yet bound to a store uses the same formula
+            Light loose = new Light("L9", "Loose", "Room");
+            loose.turnOn();
+            loose.updateEnergyConsumption(tickMillis);
+            assertEquals(loose.getPowerDraw() * tickMillis / 3_600_000.0, loose.getEnergyConsumption(), 1e-12);
+        } finally {
+            bulk.shutdown();
+            single.shutdown();
+        }
+    }
+
+    @Test
+    void shutdownReleasesThePools() throws Exception {
+        SmartHomeSystem system = fleet();
+        List<CompletableFuture<Transition>> before = system.controlDevicesAsync("OFF", system.getDevice("L1"));
+        assertEquals(Transition.CHANGED, before.get(0).get(10, TimeUnit.SECONDS));
+
+        system.shutdown();
+        assertThrows(RejectedExecutionException.class, system::tickEnergy);
+        CompletableFuture<Transition> after = system.controlDevicesAsync("ON", system.getDevice("L1")).get(0);
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> after.get(10, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof RejectedExecutionException);
+    }
+
+    private static SmartHomeSystem fleet() throws Exception {
+        SmartHomeSystem system = new SmartHomeSystem("Energy");
+        system.login("admin", "admin123");
+        system.addDevice(new Light("L1", "Lamp", "Room"));
+        system.addDevice(new AirConditioner("A1", "Cooler", "Room"));
+        system.controlDevices("ON", system.getDevice("L1"), system.getDevice("A1"));
+        return system;
+    }
+}
@@ -0,0 +1,154 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.devices.Light;
+import com.smarthome.events.DeviceEvent;
+import com.smarthome.events.DeviceEventBus;
+
+// Per-subscriber buffers: with no demand, a full buffer loses events as its overflow
+// policy says, and what is kept is delivered in order once the subscriber asks for it.
+// Delivery runs on the calling thread so each step is deterministic.
+class EventBusTest {
+    // Requests nothing until told to, and records what arrives as id=brightness
+    private static class Recorder implements Flow.Subscriber<DeviceEvent> {
+        final List<String> received = new ArrayList<>();
+        Flow.Subscription subscription;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(DeviceEvent event) {
+            received.add(event.getDeviceId() + "=" + event.getStateValue());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    private DeviceEventBus bus;
+    private Recorder recorder;
+    private Light a;
+    private Light b;
+    private Light c;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() {
+        bus = new DeviceEventBus(Runnable::run);
+        recorder = new Recorder();
+        a = new Light("A", "Light", "Room");
+        b = new Light("B", "Light", "Room");
+        c = new Light("C", "Light", "Room");
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestEvents() {
+        bus.subscribe(recorder, 3, DeviceEventBus.Overflow.DROP_OLDEST);
+        for (int brightness = 1; brightness <= 5; brightness++) {
+            publish(a, brightness);
+        }
+        assertEquals(2, bus.getDroppedCount());
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of("A=3", "A=4", "A=5"), recorder.received);
+    }
+
+    @Test
+    void dropNewestKeepsTheOldestEvents() {
+        bus.subscribe(recorder, 3, DeviceEventBus.Overflow.DROP_NEWEST);
+        for (int brightness = 1; brightness <= 5; brightness++) {
+            publish(a, brightness);
+        }
+        assertEquals(2, bus.getDroppedCount());
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of("A=1", "A=2", "A=3"), recorder.received);
+    }
+
+    @Test
+    void coalesceKeepsTheLatestEventPerDeviceInPlace() {
+        bus.subscribe(recorder, 2, DeviceEventBus.Overflow.COALESCE);
+        publish(a, 1);
+        publish(b, 1);
+        publish(a, 2);
+        // A chattering device holds one slot, and nothing is lost yet
+        assertEquals(0, bus.getDroppedCount());
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of("A=2", "B=1"), recorder.received);
+    }
+
+    @Test
+    void coalesceDropsTheOldestDeviceWhenFull() {
+        bus.subscribe(recorder, 2, DeviceEventBus.Overflow.COALESCE);
+        publish(a, 1);
+        publish(b, 1);
+        publish(a, 2);
+        publish(c, 1);
+        assertEquals(1, bus.getDroppedCount());
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of("B=1", "C=1"), recorder.received);
+    }
+
+    @Test
+    void deliveryFollowsDemand() {
+        bus.subscribe(recorder, 8, DeviceEventBus.Overflow.DROP_NEWEST);
+        publish(a, 1);
+        publish(a, 2);
+        publish(a, 3);
+        assertTrue(recorder.received.isEmpty());
+        recorder.subscription.request(2);
+        assertEquals(List.of("A=1", "A=2"), recorder.received);
+
+        // Closing still delivers what is buffered before completing
+        bus.close();
+        assertFalse(recorder.completed);
+        recorder.subscription.request(1);
+        assertEquals(List.of("A=1", "A=2", "A=3"), recorder.received);
+        assertTrue(recorder.completed);
+    }
+
+    @Test
+    void filteredDevicesTakeNoBufferSpace() {
+        bus.subscribe(recorder, 1, DeviceEventBus.Overflow.DROP_NEWEST, device -> device == a);
+        publish(b, 1);
+        publish(a, 1);
+        publish(b, 2);
+        assertEquals(0, bus.getDroppedCount());
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of("A=1"), recorder.received);
+    }
+
+    private void publish(Light light, int brightness) {
+        light.setBrightness(brightness);
+        bus.deviceChanged(light);
+    }
+}
@@ -0,0 +1,57 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.logging.EventLog;
+import com.smarthome.logging.Level;
+import com.smarthome.logging.LogEvent;
+import com.smarthome.logging.StderrSink;
+
+// Errors reach standard error before any sink is installed, and events carry their parts
+// unformatted until a sink asks for the message
+class EventLogTest {
+    @AfterEach
+    void tearDown() {
+        EventLog.setSink(StderrSink.INSTANCE);
+        EventLog.setLevel(Level.INFO);
+    }
+
+    @Test
+    void defaultSinkWritesOnlyErrorsToStderr() {
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(captured, true, StandardCharsets.UTF_8));
+        try {
+            EventLog.info("System", null, "started");
+            EventLog.warn("System", null, "slow");
+            EventLog.error("Journal", null, "write failed:", "disk full");
+        } finally {
+            System.setErr(stderr);
+        }
+        assertEquals("Journal write failed: disk full" + System.lineSeparator(),
+                captured.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void partsArePassedThroughUnformatted() {
+        List<LogEvent> events = new ArrayList<>();
+        EventLog.setSink(events::add);
+        EventLog.debug("Command", "L1", "ON");
+        EventLog.warn("Automation", null, "cascade stopped at levels:", 32, "actions:", 10_000);
+
+        assertEquals(1, events.size());
+        LogEvent event = events.get(0);
+        assertEquals(32, event.getValue());
+        assertEquals(10_000, event.getDetail());
+        assertEquals("Automation cascade stopped at levels: 32 actions: 10000", event.getMessage());
+    }
+}
@@ -0,0 +1,124 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.devices.Light;
+import com.smarthome.persistence.StateJournal;
+
+// Journal replay after a crash: a record cut short or failing its CRC ends its segment,
+// everything before it is applied, and later segments still replay
+class JournalTest {
+    private Path directory;
+    private Path segment;
+    // File size after each record, so a test can damage exactly one record
+    private List<Long> recordEnds;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("smarthome-journal");
+        segment = directory.resolve("journal-1.log");
+        recordEnds = new ArrayList<>();
+        StateJournal journal = new StateJournal(directory.toString(), StateJournal.Durability.SYNC, 50);
+        try {
+            for (int brightness = 10; brightness <= 30; brightness += 10) {
+                Light light = new Light("L" + brightness, "Light", "Room");
+                light.setBrightness(brightness);
+                journal.appendDevice(light);
+                recordEnds.add(Files.size(segment));
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Fleet.deleteRecursively(directory);
+    }
+
+    @Test
+    void intactJournalReplaysEveryRecord() throws Exception {
+        assertEquals(List.of("L10=10", "L20=20", "L30=30"), replay());
+    }
+
+    @Test
+    void tornTailIsDropped() throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(recordEnds.get(2) - 5);
+        }
+        assertEquals(List.of("L10=10", "L20=20"), replay());
+    }
+
+    @Test
+    void corruptRecordEndsItsSegment() throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long offset = recordEnds.get(1) - 2;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xFF);
+        }
+        assertEquals(List.of("L10=10"), replay());
+    }
+
+    @Test
+    void laterSegmentsReplayAfterATornOne() throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(recordEnds.get(0) + 3);
+        }
+        // Reopening after the crash starts a new segment rather than appending to the torn one
+        StateJournal journal = new StateJournal(directory.toString(), StateJournal.Durability.SYNC, 50);
+        try {
+            Light light = new Light("L40", "Light", "Room");
+            light.setBrightness(40);
+            journal.appendDevice(light);
+        } finally {
+            journal.close();
+        }
+        assertEquals(List.of("L10=10", "L40=40"), replay());
+    }
+
+    // Replayed devices as id=brightness, in journal order
+    private List<String> replay() throws Exception {
+        List<String> applied = new ArrayList<>();
+        StateJournal.replay(directory.toString(), new StateJournal.ReplayHandler() {
+            @Override
+            public void applyDevice(String type, String deviceId, String name, String location,
+                                    boolean isOn, double energy, int stateValue, String stateText) {
+                applied.add(deviceId + "=" + stateValue);
+            }
+
+            @Override
+            public void applyRule(String ruleName, String triggerDeviceId, String triggerCondition,
+                                  String action, String[] targetDeviceIds) {
+            }
+
+            @Override
+            public void applyRuleRemoved(String ruleName) {
+            }
+        });
+        return applied;
+    }
+}
@@ -0,0 +1,148 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.AirConditioner;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.Light;
+import com.smarthome.energy.EnergyReport;
+import com.smarthome.location.LocationNode;
+import com.smarthome.location.LocationTree;
+
+// Location aggregates: each change moves the counts of its node and every ancestor,
+// spellings of one path share a node, and metered energy lands once per node
+class LocationTreeTest {
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @Test
+    void kindsFollowDepth() {
+        LocationTree tree = new LocationTree("Site");
+        tree.attach(new Light("L1", "Lamp", "Kitchen"));
+        tree.attach(new Light("L2", "Lamp", "Main/1/Hall/Closet"));
+
+        assertEquals(LocationNode.Kind.SITE, tree.getRoot().getKind());
+        assertEquals(LocationNode.Kind.BUILDING, tree.find("Kitchen").getKind());
+        assertEquals(LocationNode.Kind.BUILDING, tree.find("Main").getKind());
+        assertEquals(LocationNode.Kind.FLOOR, tree.find("Main/1").getKind());
+        assertEquals(LocationNode.Kind.ROOM, tree.find("Main/1/Hall").getKind());
+        assertEquals(LocationNode.Kind.ROOM, tree.find("Main/1/Hall/Closet").getKind());
+        assertNull(tree.find("Main/2"));
+    }
+
+    @Test
+    void spellingsOfOnePathShareANode() {
+        LocationTree tree = new LocationTree("Site");
+        Light plain = new Light("L1", "Lamp", "home/kitchen");
+        Light trailing = new Light("L2", "Lamp", "home/kitchen/");
+        Light spaced = new Light("L3", "Lamp", " home / kitchen ");
+        tree.attach(plain);
+        tree.attach(trailing);
+        tree.attach(spaced);
+
+        LocationNode kitchen = tree.find("home/kitchen");
+        assertSame(kitchen, tree.find("home/kitchen/"));
+        assertSame(kitchen, tree.find("/home//kitchen"));
+        assertEquals(1, tree.getRoot().getChildren().size());
+        assertEquals(3, kitchen.getDeviceCount());
+        assertEquals(3, kitchen.getDevices().size());
+    }
+
+    @Test
+    void stateChangesReachEveryAncestor() throws Exception {
+        LocationTree tree = new LocationTree("Site");
+        Light light = new Light("L1", "Lamp", "Main/1/Kitchen");
+        AirConditioner cooler = new AirConditioner("A1", "Cooler", "Main/2/Bedroom");
+        tree.attach(light);
+        tree.attach(cooler);
+
+        light.turnOn();
+        tree.deviceChanged(light);
+        cooler.control("TEMP", "20");
+        tree.deviceChanged(cooler);
+        assertEquals(1, tree.find("Main/1").getOnCount());
+        assertEquals(0, tree.find("Main/2").getOnCount());
+        assertEquals(1, tree.getRoot().getOnCount());
+        assertEquals(20.0, tree.find("Main").getAverageTemperature(), 1e-9);
+        assertTrue(Double.isNaN(tree.find("Main/1").getAverageTemperature()));
+
+        // Seeing the same state twice changes nothing
+        tree.deviceChanged(light);
+        assertEquals(1, tree.getRoot().getOnCount());
+
+        tree.detach(light);
+        assertEquals(0, tree.find("Main/1/Kitchen").getDeviceCount());
+        assertEquals(1, tree.getRoot().getDeviceCount());
+        assertEquals(0, tree.getRoot().getOnCount());
+    }
+
+    @Test
+    void reportedTotalsAreSummedAcrossSpellings() {
+        LocationTree tree = new LocationTree("Site");
+        tree.attach(new Light("L1", "Lamp", "home/kitchen"));
+        tree.attach(new Light("L2", "Lamp", "home/kitchen/"));
+        tree.attach(new Light("L3", "Lamp", "home/hall"));
+
+        tree.energyReported(report(1.5, 2.5, 1.0));
+        assertEquals(4.0, tree.find("home/kitchen").getEnergy(), 1e-9);
+        assertEquals(5.0, tree.getRoot().getEnergy(), 1e-9);
+
+        // Totals are absolute, so a later report replaces rather than adds
+        tree.energyReported(report(2.0, 3.0, 1.0));
+        assertEquals(5.0, tree.find("home/kitchen").getEnergy(), 1e-9);
+        assertEquals(6.0, tree.find("home").getEnergy(), 1e-9);
+        assertEquals(6.0, tree.getRoot().getEnergy(), 1e-9);
+    }
+
+    @Test
+    void meteringTickMatchesDeviceEnergy() throws Exception {
+        SmartHomeSystem system = new SmartHomeSystem("Site");
+        try {
+            system.login("admin", "admin123");
+            system.addDevice(new Light("L1", "Lamp", "home/kitchen"));
+            system.addDevice(new Light("L2", "Lamp", "home/kitchen/"));
+            system.addDevice(new AirConditioner("A1", "Cooler", "home/bedroom"));
+            system.controlDevices("ON", system.getDevice("L1"), system.getDevice("L2"), system.getDevice("A1"));
+            for (int i = 0; i < 3; i++) {
+                system.tickEnergy();
+            }
+
+            double kitchen = 0;
+            for (Device device : system.getLocations().find("home/kitchen").getDevices()) {
+                kitchen += device.getEnergyConsumption();
+            }
+            double total = kitchen + system.getDevice("A1").getEnergyConsumption();
+            assertTrue(kitchen > 0);
+            assertEquals(kitchen, system.getLocations().find("home/kitchen").getEnergy(), 1e-9);
+            assertEquals(total, system.getLocations().getRoot().getEnergy(), 1e-9);
+        } finally {
+            system.shutdown();
+        }
+    }
+
+    private static EnergyReport report(double kitchen, double kitchenTrailing, double hall) {
+        Map<String, Double> byLocation = new LinkedHashMap<>();
+        byLocation.put("home/kitchen", kitchen);
+        byLocation.put("home/kitchen/", kitchenTrailing);
+        byLocation.put("home/hall", hall);
+        return new EnergyReport(1, 3, kitchen + kitchenTrailing + hall, Map.of(), byLocation, 0);
+    }
+}
@@ -0,0 +1,62 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.Light;
+import com.smarthome.metrics.MetricsRegistry;
+import com.smarthome.user.Session;
+
+// Rejected commands count as errors, and rule-fire labels stay bounded however many
+// rules are created
+class MetricsTest {
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @Test
+    void rejectedCommandsAreCountedAsErrors() throws Exception {
+        // The system records into the shared registry, so measure the change
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        long before = metrics.getErrorCount(MetricsRegistry.REJECTED_COMMAND);
+        SmartHomeSystem system = new SmartHomeSystem("Metrics");
+        Session session = system.openSession("admin", "admin123");
+        system.addDevice(session, new Light("L1", "Lamp", "Room"));
+
+        assertEquals(Transition.CHANGED, system.controlDevice(session, "L1", "ON"));
+        assertEquals(Transition.NO_OP, system.controlDevice(session, "L1", "ON"));
+        assertEquals(Transition.REJECTED, system.controlDevice(session, "L1", "BRIGHTNESS", "400"));
+        system.controlDevices(session, "MODE", "HEAT", system.getDevice("L1"));
+        assertEquals(2, metrics.getErrorCount(MetricsRegistry.REJECTED_COMMAND) - before);
+        system.shutdown();
+    }
+
+    @Test
+    void ruleFireLabelsAreCapped() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        for (int i = 0; i < 5000; i++) {
+            metrics.recordRuleFire("rule-" + i);
+        }
+        metrics.recordRuleFire("rule-0");
+
+        assertEquals(2, metrics.getRuleFireCount("rule-0"));
+        assertEquals(0, metrics.getRuleFireCount("rule-4999"));
+        assertEquals(4000, metrics.getRuleFireCount("OTHER"));
+        long ruleSeries = metrics.toPrometheus().lines()
+                .filter(line -> line.startsWith("smarthome_rule_fires_total{"))
+                .count();
+        assertTrue(ruleSeries <= 1001, "series: " + ruleSeries);
+    }
+}
@@ -0,0 +1,80 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Light;
+import com.smarthome.exception.PermissionDeniedException;
+import com.smarthome.user.Permission;
+import com.smarthome.user.Session;
+import com.smarthome.user.SessionTable;
+import com.smarthome.user.User;
+
+// Password checks and session lifetimes: sessions end when idle too long or too old,
+// and an ended session can no longer control devices
+class SessionTest {
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @Test
+    void passwordsVerifyAgainstTheirHash() {
+        User user = new User("alice", "secret");
+        assertTrue(user.authenticate("secret"));
+        assertFalse(user.authenticate("Secret"));
+        assertFalse(user.authenticate(null));
+    }
+
+    @Test
+    void idleSessionExpiresUnlessUsed() throws Exception {
+        SessionTable table = new SessionTable(200, 60_000);
+        Session used = table.open(new User("alice", "secret"));
+        Session idle = table.open(new User("bob", "secret"));
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(50);
+            assertTrue(used.hasPermission(Permission.VIEW_STATUS));
+        }
+        assertSame(used, table.validate(used.getToken()));
+        assertFalse(idle.isActive());
+        assertFalse(idle.hasPermission(Permission.VIEW_STATUS));
+        assertNull(table.validate(idle.getToken()));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void sessionEndsAtItsMaximumAge() throws Exception {
+        SessionTable table = new SessionTable(60_000, 150);
+        Session session = table.open(new User("alice", "secret"));
+        while (table.validate(session.getToken()) != null) {
+            Thread.sleep(10);
+        }
+        assertTrue(System.currentTimeMillis() - session.getLoginTime() >= 150);
+        assertFalse(session.isActive());
+    }
+
+    @Test
+    void closedSessionCannotControlDevices() throws Exception {
+        SmartHomeSystem system = new SmartHomeSystem("Sessions");
+        Session session = system.openSession("admin", "admin123");
+        system.addDevice(session, new Light("L1", "Light", "Room"));
+        system.controlDevice(session, "L1", "ON");
+        system.closeSession(session);
+        assertThrows(PermissionDeniedException.class, () -> system.controlDevice(session, "L1", "OFF"));
+        assertTrue(system.getDevice("L1").isOn());
+    }
+}
@@ -0,0 +1,121 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.automation.Automation;
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.Light;
+import com.smarthome.shard.ShardedSystem;
+
+// Sharded engine: reads come back as copies taken on the owning shard, and a cascade that
+// crosses shards spends one action budget however often it is forwarded
+class ShardedSystemTest {
+    // Counts every command that reaches the device, from any rule or caller
+    private static class CountingLight extends Light {
+        final AtomicInteger applied;
+
+        CountingLight(String deviceId, AtomicInteger applied) {
+            super(deviceId, "Counting", "Room");
+            this.applied = applied;
+        }
+
+        @Override
+        public Transition apply(DeviceCommand command, int value) {
+            applied.incrementAndGet();
+            return super.apply(command, value);
+        }
+    }
+
+    private ShardedSystem system;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() {
+        system = new ShardedSystem(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        system.shutdown();
+    }
+
+    @Test
+    void getDeviceReturnsADetachedCopy() throws Exception {
+        assertTrue(system.addDevice(new Light("L1", "Lamp", "Home/Hall")).get(10, TimeUnit.SECONDS));
+        system.control("L1", "BRIGHTNESS", "40").get(10, TimeUnit.SECONDS);
+        system.control("L1", DeviceCommand.ON, 0).get(10, TimeUnit.SECONDS);
+
+        Device copy = system.getDevice("L1").get(10, TimeUnit.SECONDS);
+        assertTrue(copy instanceof Light);
+        assertEquals("Home/Hall", copy.getLocation());
+        assertTrue(copy.isOn());
+        assertEquals(40, copy.getStateValue());
+
+        // Changing the copy leaves the shard's device alone
+        copy.turnOff();
+        assertNotSame(copy, system.getDevice("L1").get(10, TimeUnit.SECONDS));
+        assertTrue(system.getDevice("L1").get(10, TimeUnit.SECONDS).isOn());
+        assertNull(system.getDevice("missing").get(10, TimeUnit.SECONDS));
+    }
+
+    // Four rules toggle two devices on different shards forever, so every action is
+    // forwarded; only the action budget stops them
+    @Test
+    void forwardedCascadeSharesOneActionBudget() throws Exception {
+        String[] ids = idsOnDifferentShards();
+        AtomicInteger applied = new AtomicInteger();
+        system.addDevice(new CountingLight(ids[0], applied)).get(10, TimeUnit.SECONDS);
+        system.addDevice(new CountingLight(ids[1], applied)).get(10, TimeUnit.SECONDS);
+        system.setCyclePolicy(Automation.CyclePolicy.FLAG);
+        system.setCascadeLimits(1_000, 10);
+        system.createRule("A on", ids[0], "on == true", "ON", ids[1]).get(10, TimeUnit.SECONDS);
+        system.createRule("B on", ids[1], "on == true", "OFF", ids[0]).get(10, TimeUnit.SECONDS);
+        system.createRule("A off", ids[0], "on == false", "OFF", ids[1]).get(10, TimeUnit.SECONDS);
+        system.createRule("B off", ids[1], "on == false", "ON", ids[0]).get(10, TimeUnit.SECONDS);
+
+        system.control(ids[0], DeviceCommand.ON, 0).get(10, TimeUnit.SECONDS);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (applied.get() < 11 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        // A round trip through every shard lets any forward still in flight land
+        for (int i = 0; i < 5; i++) {
+            system.getTotalEnergy().get(10, TimeUnit.SECONDS);
+        }
+        // The caller's command plus the ten actions the budget allows
+        assertEquals(11, applied.get());
+    }
+
+    private String[] idsOnDifferentShards() {
+        String first = "L0";
+        for (int i = 1; ; i++) {
+            String id = "L" + i;
+            if (system.shardOf(id) != system.shardOf(first)) {
+                return new String[] {first, id};
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.AirConditioner;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.DeviceTypeRegistry;
+import com.smarthome.devices.Light;
+import com.smarthome.devices.MotionSensor;
+import com.smarthome.devices.SmartPlug;
+import com.smarthome.devices.Thermostat;
+import com.smarthome.persistence.SystemSnapshot;
+
+// Binary snapshots: every device type comes back with its full state, and a save that
+// fails part way leaves the previous snapshot readable
+class SnapshotTest {
+    private Path directory;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("smarthome-snapshot");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Fleet.deleteRecursively(directory);
+    }
+
+    @Test
+    void roundTripRestoresEveryDevice() throws Exception {
+        SmartHomeSystem system = new SmartHomeSystem("Snapshot");
+        system.login("admin", "admin123");
+        system.addDevice(new Light("L1", "Lamp", "Home/Hall"));
+        system.addDevice(new AirConditioner("A1", "Cooler", "Home/Bedroom"));
+        system.addDevice(new Thermostat("T1", "Thermostat", "Home/Hall"));
+        system.addDevice(new SmartPlug("P1", "Plug", "Home/Kitchen"));
+        system.addDevice(new MotionSensor("M1", "Sensor", "Garage"));
+        system.controlDevices("ON", system.getDevice("L1"), system.getDevice("A1"), system.getDevice("P1"));
+        system.controlDevices("BRIGHTNESS", "40", system.getDevice("L1"));
+        system.controlDevices("TEMP", "19", system.getDevice("A1"));
+        system.controlDevices("MODE", "HEAT", system.getDevice("A1"));
+        for (int i = 0; i < 3; i++) {
+            system.getDevice("L1").updateEnergyConsumption();
+            system.getDevice("A1").updateEnergyConsumption();
+        }
+
+        Path file = directory.resolve("state.bin");
+        system.saveSystemState(file.toString());
+        assertTrue(SystemSnapshot.isSnapshot(file.toString()));
+        assertFalse(Files.exists(directory.resolve("state.bin.tmp")));
+
+        SmartHomeSystem restored = new SmartHomeSystem("Snapshot");
+        restored.loadSystemState(file.toString());
+        for (String deviceId : new String[] {"L1", "A1", "T1", "P1", "M1"}) {
+            Device expected = system.getDevice(deviceId);
+            Device actual = restored.getDevice(deviceId);
+            assertNotNull(actual, deviceId);
+            assertEquals(expected.getDeviceType(), actual.getDeviceType(), deviceId);
+            assertEquals(expected.getName(), actual.getName(), deviceId);
+            assertEquals(expected.getLocation(), actual.getLocation(), deviceId);
+            assertEquals(expected.isOn(), actual.isOn(), deviceId);
+            assertEquals(expected.getStateValue(), actual.getStateValue(), deviceId);
+            assertEquals(expected.getStateText(), actual.getStateText(), deviceId);
+            assertEquals(expected.getEnergyConsumption(), actual.getEnergyConsumption(), 1e-9, deviceId);
+        }
+        assertEquals(system.getEnergyStore().getTotal(), restored.getEnergyStore().getTotal(), 1e-9);
+    }
+
+    @Test
+    void failedSaveKeepsThePreviousSnapshot() throws Exception {
+        Path file = directory.resolve("state.bin");
+        SystemSnapshot.write(file.toString(), "before", new Device[] {new Light("L1", "Lamp", "Hall")});
+
+        // Fails while the records are being written, after the file has been opened
+        Device broken = new Light("L2", "Broken", "Hall") {
+            @Override
+            public double getEnergyConsumption() {
+                throw new IllegalStateException("meter fault");
+            }
+        };
+        assertThrows(IllegalStateException.class, () -> SystemSnapshot.write(file.toString(), "after",
+                new Device[] {new Light("L1", "Lamp", "Hall"), broken}));
+
+        assertFalse(Files.exists(directory.resolve("state.bin.tmp")));
+        List<Device> devices = SystemSnapshot.read(file.toString(), DeviceTypeRegistry.getDefault()::create);
+        assertEquals(1, devices.size());
+        assertEquals("L1", devices.get(0).getDeviceId());
+    }
+}
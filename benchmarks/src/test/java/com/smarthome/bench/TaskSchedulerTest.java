@@ -0,0 +1,167 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.automation.TaskScheduler;
+
+// The timing wheel driven by hand: a fixed clock and advanceTo() stand in for the driver
+// thread, and tasks run inline so each firing is observed on the tick it happens
+class TaskSchedulerTest {
+    private static final long TICK = 10;
+
+    // Runs tasks on the calling thread and rejects them once shut down, like a real pool
+    private static class DirectExecutor extends AbstractExecutorService {
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("shut down");
+            }
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+    }
+
+    private DirectExecutor workers;
+    private TaskScheduler scheduler;
+    private List<String> fired;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() {
+        workers = new DirectExecutor();
+        scheduler = new TaskScheduler(Clock.fixed(Instant.EPOCH, ZoneOffset.UTC), TICK, workers);
+        fired = new ArrayList<>();
+    }
+
+    @Test
+    void firesOnTheDeadlineTick() {
+        scheduler.schedule(55, 0, record("a"));
+        scheduler.schedule(60, 0, record("b"));
+        assertEquals(2, scheduler.getPendingCount());
+
+        scheduler.advanceTo(50);
+        assertEquals(List.of(), fired);
+        // Deadlines round up to the next tick, so both are due at 60
+        scheduler.advanceTo(60);
+        assertEquals(2, fired.size());
+        assertTrue(fired.containsAll(List.of("a", "b")));
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    void cancelledTaskNeverFires() {
+        String keep = scheduler.schedule(100, 0, record("keep"));
+        String drop = scheduler.schedule(100, 0, record("drop"));
+        assertTrue(scheduler.cancel(drop));
+        assertFalse(scheduler.cancel(drop));
+
+        scheduler.advanceTo(1000);
+        assertEquals(List.of("keep"), fired);
+        assertFalse(scheduler.cancel(keep));
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    void periodicTaskIsRescheduled() {
+        String scheduleId = scheduler.schedule(100, 100, record("tick"));
+        scheduler.advanceTo(99);
+        assertEquals(0, fired.size());
+        scheduler.advanceTo(1000);
+        assertEquals(10, fired.size());
+        assertEquals(1, scheduler.getPendingCount());
+
+        assertTrue(scheduler.cancel(scheduleId));
+        scheduler.advanceTo(2000);
+        assertEquals(10, fired.size());
+    }
+
+    // Deadlines on both sides of each level boundary start in a coarse bucket and must
+    // cascade down to fire on exactly their own tick
+    @Test
+    void farTimersCascadeToTheirExactTick() {
+        long[] ticks = {1, 511, 512, 513, 1000, 262_143, 262_144, 262_145, 300_000, 134_217_727,
+                134_217_728, 134_217_733};
+        for (long tick : ticks) {
+            scheduler.schedule(tick * TICK, 0, record(Long.toString(tick)));
+        }
+
+        for (int i = 0; i < ticks.length; i++) {
+            scheduler.advanceTo((ticks[i] - 1) * TICK);
+            assertEquals(i, fired.size(), "early at tick " + ticks[i]);
+            scheduler.advanceTo(ticks[i] * TICK);
+            assertEquals(i + 1, fired.size(), "missed tick " + ticks[i]);
+            assertEquals(Long.toString(ticks[i]), fired.get(i));
+        }
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    void stopsCleanlyOnceWorkersShutDown() {
+        scheduler.schedule(100, 0, record("before"));
+        scheduler.schedule(200, 0, record("after"));
+        scheduler.advanceTo(100);
+        workers.shutdown();
+
+        // Rejected work stops the wheel instead of throwing into the driver
+        scheduler.advanceTo(300);
+        assertEquals(List.of("before"), fired);
+        assertEquals(1, scheduler.getPendingCount());
+        scheduler.shutdown();
+    }
+
+    private Runnable record(String name) {
+        return () -> fired.add(name);
+    }
+}
@@ -0,0 +1,122 @@
+package com.smarthome.bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.smarthome.core.DeviceQuery;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.Light;
+
+// Legacy text state files: a good file replaces the whole registry, and a malformed one
+// leaves the running state untouched. The large files span several parse chunks.
+class TextStateLoaderTest {
+    // Enough lines to exceed the 1 MB minimum chunk a few times over
+    private static final int LARGE = 100_000;
+
+    private Path directory;
+    private SmartHomeSystem system;
+    private Device original;
+
+    @BeforeAll
+    static void silence() {
+        Fleet.silenceConsole();
+    }
+
+    @AfterAll
+    static void restore() {
+        Fleet.restoreConsole();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("smarthome-text");
+        system = new SmartHomeSystem("Loader");
+        system.login("admin", "admin123");
+        original = new Light("KEEP", "Kept", "Home/Hall");
+        system.addDevice(original);
+        system.controlDevices("ON", original);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        system.shutdown();
+        Fleet.deleteRecursively(directory);
+    }
+
+    @Test
+    void goodFileReplacesTheRegistry() throws Exception {
+        Path file = write("good.txt", LARGE, LARGE);
+        assertTrue(Files.size(file) > 3 << 20);
+        system.loadSystemState(file.toString());
+
+        assertNull(system.getDevice("KEEP"));
+        assertEquals(LARGE, system.findDevices(new DeviceQuery()).length);
+        Device last = system.getDevice("D" + (LARGE - 1));
+        assertEquals("Light", last.getDeviceType());
+        assertEquals("Home/Room" + ((LARGE - 1) % 16), last.getLocation());
+        assertEquals(LARGE / 2, system.getLocations().getRoot().getOnCount());
+    }
+
+    @Test
+    void truncatedFileKeepsTheCurrentState() throws Exception {
+        // The header promises one more device than the file holds
+        Path file = write("truncated.txt", LARGE + 1, LARGE);
+        system.loadSystemState(file.toString());
+        assertUnchanged();
+    }
+
+    @Test
+    void badHeaderKeepsTheCurrentState() throws Exception {
+        Path file = directory.resolve("header.txt");
+        Files.writeString(file, "SYSTEM:Loader\nDEVICES:many\nLight,D0,Device 0,Home,true\n");
+        system.loadSystemState(file.toString());
+        assertUnchanged();
+
+        Files.writeString(file, "not a state file\n");
+        system.loadSystemState(file.toString());
+        assertUnchanged();
+    }
+
+    @Test
+    void missingFileKeepsTheCurrentState() {
+        system.loadSystemState(directory.resolve("missing.txt").toString());
+        assertUnchanged();
+    }
+
+    private void assertUnchanged() {
+        Device[] all = system.findDevices(new DeviceQuery());
+        assertEquals(1, all.length);
+        assertSame(original, system.getDevice("KEEP"));
+        assertEquals(1, system.getLocations().getRoot().getDeviceCount());
+        assertEquals(1, system.getLocations().getRoot().getOnCount());
+        assertEquals(1, system.getEnergyStore().size());
+    }
+
+    // Writes a text state file declaring the given count, with one line per device; every
+    // other device is on
+    private Path write(String name, int declared, int lines) throws Exception {
+        Path file = directory.resolve(name);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("SYSTEM:Loader\n");
+            out.write("DEVICES:" + declared + "\n");
+            for (int i = 0; i < lines; i++) {
+                out.write("Light,D" + i + ",Device " + i + ",Home/Room" + (i % 16) + "," + (i % 2 == 0) + "\n");
+            }
+        }
+        return file;
+    }
+}
@@ -1,5 +1,8 @@
 package com.smarthome;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.Scanner;
 
 
@@ -7,6 +10,10 @@ import com.smarthome.automation.Automation;
 import com.smarthome.core.SmartHomeSystem;
 import com.smarthome.devices.*;
 import com.smarthome.exception.*;
+import com.smarthome.logging.ConsoleSink;
+import com.smarthome.logging.EventLog;
+import com.smarthome.persistence.StateJournal;
+import com.smarthome.server.CommandServer;
 
 public class Main {
     private static SmartHomeSystem system;
@@ -14,9 +21,42 @@ public class Main {
     
     public static void main(String[] args) {
         // Initialize system
+        // Interactive use prints events straight to the console
+        EventLog.setSink(new ConsoleSink());
         system = new SmartHomeSystem("MySmartHome");
         scanner = new Scanner(System.in);
         
+        // Persistence and the network endpoints are opt-in:
+        //   --journal <dir>    recover from and keep journaling to the directory
+        //   --metrics <port>   Prometheus metrics on the loopback interface
+        //   --server <port>    line-protocol command server on the loopback interface
+        String journalDirectory = option(args, "--journal");
+        if (journalDirectory != null) {
+            try {
+                system.enableJournal(journalDirectory, StateJournal.Durability.BATCHED, 60000);
+            } catch (SystemException e) {
+                System.out.println("Error enabling journal: " + e.getMessage());
+            }
+        }
+        system.getMetering().start();
+        String metricsPort = option(args, "--metrics");
+        if (metricsPort != null) {
+            try {
+                system.startMetricsServer(Integer.parseInt(metricsPort));
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Metrics endpoint unavailable: " + e.getMessage());
+            }
+        }
+        String serverPort = option(args, "--server");
+        if (serverPort != null) {
+            try {
+                new CommandServer(system, new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                        Integer.parseInt(serverPort)), 2).start();
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Command server unavailable: " + e.getMessage());
+            }
+        }
+        
         // Initialize some devices
         try {
             system.addDevice(new Light("L1", "Living Room Light", "Living Room"));
@@ -43,6 +83,7 @@ public class Main {
                 String choice = scanner.nextLine();
                 if (!choice.equalsIgnoreCase("y")) {
                     System.out.println("Exiting system.");
+                    system.shutdown();
                     return;
                 }
             }
@@ -99,6 +140,7 @@ public class Main {
         }
         
         scanner.close();
+        system.shutdown();
     }
     
     private static void controlDevicesMenu() {
@@ -154,7 +196,7 @@ public class Main {
             }
         }
         
-        System.out.print("Enter trigger condition: ");
+        System.out.print("Enter trigger condition (event name, or e.g. \"temperature > 28 for 5m\"): ");
         String triggerCondition = scanner.nextLine();
         
         System.out.print("Enter action to perform: ");
@@ -210,13 +252,25 @@ public class Main {
         System.out.print("Enter action (default: ON): ");
         String action = scanner.nextLine().toUpperCase();
         
-        if (action.isEmpty()) {
-            system.getAutomation().scheduleTask(time, devices);
-        } else {
-           system.getAutomation().scheduleTask(time, action, devices);
+        try {
+            if (action.isEmpty()) {
+                system.getAutomation().scheduleTask(time, devices);
+            } else {
+                system.getAutomation().scheduleTask(time, action, devices);
+            }
+            System.out.println("Schedule created successfully.");
+        } catch (AutomationException e) {
+            System.out.println("Error creating schedule: " + e.getMessage());
         }
-        
-        System.out.println("Schedule created successfully.");
+    }
+    
+    // Value following the flag, or null if the flag is absent
+    private static String option(String[] args, String flag) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(flag)) {
+                return args[i + 1];
+            }
+        }
+        return null;
     }
 }
-
@@ -0,0 +1,11 @@
+package com.smarthome.automation;
+
+import com.smarthome.devices.Device;
+
+// Claims rule actions on target devices owned by another engine. Returning true means the
+// forwarder delivers the action (usually via Automation.applyForwarded on the owner);
+// false has the action applied locally. The budget goes along with the action so the
+// owner's part of the cascade draws on what the sender's part left.
+public interface ActionForwarder {
+    boolean forward(Automation.Rule rule, Device target, int depth, CascadeBudget budget);
+}
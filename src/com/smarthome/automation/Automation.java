@@ -1,8 +1,34 @@
 package com.smarthome.automation;
 
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
 import com.smarthome.devices.Device;
+import com.smarthome.events.DeviceEvent;
+import com.smarthome.events.DeviceEventBus;
 import com.smarthome.exception.AuthenticationException;
 import com.smarthome.exception.AutomationException;
+import com.smarthome.logging.EventLog;
+import com.smarthome.metrics.MetricsRegistry;
 
 public class Automation {
     // Nested class for rules
@@ -12,6 +38,24 @@ public class Automation {
         private String triggerCondition;
         private Device[] targetDevices;
         private String action;
+        // Action resolved at creation so execute() skips the string lookup
+        private DeviceCommand command;
+        // Set for compiled conditions; null for plain event names
+        private Condition condition;
+        // Condition state, guarded by the rule's monitor
+        private boolean latched;
+        private boolean seen;
+        private boolean lastOn;
+        private int lastValue;
+        private String lastText;
+        private String pendingTimer;
+        private List<String> boundaryTimers = new ArrayList<>();
+        // Coalescing key for this rule's action on a target: ON and OFF share one slot
+        private String slot;
+        // Accepted under CyclePolicy.FLAG although it closes a trigger cycle
+        private boolean cyclic;
+        // Creation order, so listings keep the order rules were added in
+        private long sequence;
         
         public Rule(String ruleName, Device triggerDevice, String triggerCondition, 
                    String action, Device... targetDevices) {
@@ -20,11 +64,101 @@ public class Automation {
             this.triggerCondition = triggerCondition;
             this.action = action;
             this.targetDevices = targetDevices;
+            this.command = DeviceCommand.fromName(action);
+            this.slot = command == DeviceCommand.ON || command == DeviceCommand.OFF ? "POWER" : action;
         }
         
+        // Runs the action on every target directly, outside any cascade
         public void execute() {
+            long start = System.nanoTime();
             for (Device device : targetDevices) {
-                device.control(action);
+                applyTo(device);
+            }
+            metrics.recordRuleFire(ruleName);
+            metrics.recordLatency("rule_execute", System.nanoTime() - start);
+        }
+        
+        public Transition applyTo(Device device) {
+            // Rules often re-fire at devices already in the target state; that is a quiet NO_OP
+            Transition result;
+            if (command != null && command.getArgument() == DeviceCommand.Argument.NONE
+                    && device.supports(command)) {
+                result = device.apply(command, 0);
+            } else {
+                result = device.apply(action);
+            }
+            metrics.recordTransition(result);
+            if (result == Transition.REJECTED) {
+                EventLog.warn("Rule", ruleName, "action rejected by", device.getName());
+            }
+            return result;
+        }
+        
+        // Re-evaluates the condition against a new state of the trigger device and returns
+        // true on the rising edge, when the rule should fire. Changes to attributes the
+        // condition does not read are ignored, so seeing the same state twice is harmless.
+        synchronized boolean evaluate(boolean on, int value, String text, boolean clockTick) {
+            if (seen && !clockTick) {
+                int changed = (on != lastOn ? Condition.POWER : 0)
+                        | (value != lastValue ? Condition.VALUE : 0)
+                        | (!Objects.equals(text, lastText) ? Condition.TEXT : 0);
+                if ((changed & condition.getAttributes()) == 0) {
+                    return false;
+                }
+            }
+            seen = true;
+            lastOn = on;
+            lastValue = value;
+            lastText = text;
+            
+            boolean holds = condition.test(on, value, text, minuteOfDay(), latched);
+            if (!holds) {
+                latched = false;
+                cancelPending();
+            } else if (!latched) {
+                if (condition.getForMillis() == 0) {
+                    latched = true;
+                    EventLog.info("Rule", ruleName, "condition met:", condition.getSource());
+                    return true;
+                }
+                if (pendingTimer == null) {
+                    // Debounce: fire only if the condition still holds when the timer runs
+                    TaskScheduler timers = scheduler();
+                    pendingTimer = timers.schedule(
+                            timers.getClock().millis() + condition.getForMillis(), 0,
+                            () -> timerExecutor.execute(this::confirm));
+                }
+            }
+            return false;
+        }
+        
+        private void confirm() {
+            boolean fire;
+            synchronized (this) {
+                pendingTimer = null;
+                fire = !latched && condition.test(triggerDevice.isOn(), triggerDevice.getStateValue(),
+                        triggerDevice.getStateText(), minuteOfDay(), false);
+                latched |= fire;
+            }
+            if (fire) {
+                EventLog.info("Rule", ruleName, "condition held:", condition.getSource());
+                runCascade(Collections.singletonList(this), 0, new CascadeBudget(maxCascadeActions));
+            }
+        }
+        
+        // Takes the current state as the baseline so an already-true condition does not fire
+        private synchronized void arm() {
+            seen = true;
+            lastOn = triggerDevice.isOn();
+            lastValue = triggerDevice.getStateValue();
+            lastText = triggerDevice.getStateText();
+            latched = condition.test(lastOn, lastValue, lastText, minuteOfDay(), false);
+        }
+        
+        private synchronized void cancelPending() {
+            if (pendingTimer != null) {
+                scheduler().cancel(pendingTimer);
+                pendingTimer = null;
             }
         }
         
@@ -32,26 +166,112 @@ public class Automation {
         public String getRuleName() { return ruleName; }
         public Device getTriggerDevice() { return triggerDevice; }
         public String getTriggerCondition() { return triggerCondition; }
+        public String getAction() { return action; }
+        public Device[] getTargetDevices() { return targetDevices.clone(); }
+        public boolean isCyclic() { return cyclic; }
+    }
+    
+    // What createRule does with a rule whose targets lead back to its own trigger device
+    public enum CyclePolicy {
+        REJECT, // refuse the rule
+        FLAG    // accept it, mark it cyclic and rely on the cascade bounds
     }
     
-    private Rule[] rules;
-    private int ruleCount;
+    // Rule maps are written under this object's monitor and read without it; the lists are
+    // copy-on-write so readers iterate a stable snapshot
+    private Map<String, Rule> rules;
+    // Rules indexed by trigger device (NO_TRIGGER for time-based rules), then by condition
+    private Map<Object, Map<String, List<Rule>>> rulesByTrigger;
+    // Rules with compiled conditions, indexed by the device whose state they read
+    private Map<Device, List<Rule>> conditionsByDevice;
+    // Trigger device -> target device -> number of condition rules with that edge
+    private Map<Device, Map<Device, Integer>> dependencies;
+    private volatile CyclePolicy cyclePolicy = CyclePolicy.REJECT;
+    private volatile int maxCascadeDepth = 32;
+    private volatile int maxCascadeActions = 10_000;
+    private volatile RuleListener listener;
+    private volatile ActionForwarder forwarder;
+    // Runs debounce and time-boundary callbacks; the scheduler thread itself by default
+    private volatile Executor timerExecutor = Runnable::run;
+    // Times debounces and boundaries and supplies the clock conditions read; the shared
+    // scheduler, resolved on first use, unless one is given
+    private volatile TaskScheduler scheduler;
+    // Event source for condition rules; subscribed only while some condition rule exists,
+    // so a bus feeding no rules keeps its no-subscriber fast path. Guarded by this.
+    private DeviceEventBus eventSource;
+    private Flow.Subscription eventSubscription;
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    // Guarded by this
+    private long nextSequence;
+    
+    // Stands in for the missing trigger device of time-based rules in rulesByTrigger
+    private static final Object NO_TRIGGER = new Object();
     
     public Automation() {
-        this.rules = new Rule[100]; // Fixed size array instead of ArrayList
-        this.ruleCount = 0;
+        this(null);
+    }
+    
+    public Automation(TaskScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.rules = new ConcurrentHashMap<>();
+        this.rulesByTrigger = new ConcurrentHashMap<>();
+        this.conditionsByDevice = new ConcurrentHashMap<>();
+        this.dependencies = new HashMap<>();
+    }
+    
+    public void setCyclePolicy(CyclePolicy policy) {
+        this.cyclePolicy = policy;
+    }
+    
+    // Bounds one cascade: levels of rule-triggers-rule, and device actions applied in total
+    public void setCascadeLimits(int maxDepth, int maxActions) {
+        this.maxCascadeDepth = maxDepth;
+        this.maxCascadeActions = maxActions;
+    }
+    
+    // Lets another engine own some target devices; see ActionForwarder
+    public void setForwarder(ActionForwarder forwarder) {
+        this.forwarder = forwarder;
+    }
+    
+    // Where timer callbacks run, for callers that confine the engine to one thread
+    public void setTimerExecutor(Executor executor) {
+        this.timerExecutor = executor;
     }
     
     // Vararg overloaded methods for creating rules
-    public void createRule(String ruleName, Device triggerDevice, String triggerCondition, 
+    public synchronized void createRule(String ruleName, Device triggerDevice, String triggerCondition, 
                           String action, Device... targetDevices) throws AutomationException {
-        if (ruleCount >= rules.length) {
-            throw new AutomationException("Maximum number of rules reached");
+        if (rules.containsKey(ruleName)) {
+            throw new AutomationException("Rule already exists: " + ruleName);
         }
         
         Rule rule = new Rule(ruleName, triggerDevice, triggerCondition, action, targetDevices);
-        rules[ruleCount++] = rule;
-        System.out.println("Rule created: " + ruleName);
+        if (Condition.isCondition(triggerCondition)) {
+            rule.condition = Condition.compile(triggerCondition, triggerDevice);
+            checkCycle(rule);
+            if (eventSource != null && eventSubscription == null) {
+                listen(eventSource);
+            }
+            addDependencies(rule, 1);
+            rule.arm();
+            for (int minute : rule.condition.getBoundaries()) {
+                String time = String.format("daily %02d:%02d", minute / 60, minute % 60);
+                rule.boundaryTimers.add(scheduler().schedule(time,
+                        () -> timerExecutor.execute(() -> reevaluate(rule))));
+            }
+            conditionsByDevice.computeIfAbsent(triggerDevice, k -> new CopyOnWriteArrayList<>()).add(rule);
+        } else {
+            rulesByTrigger.computeIfAbsent(triggerKey(triggerDevice), k -> new ConcurrentHashMap<>())
+                          .computeIfAbsent(triggerCondition, k -> new CopyOnWriteArrayList<>())
+                          .add(rule);
+        }
+        rule.sequence = nextSequence++;
+        rules.put(ruleName, rule);
+        EventLog.info("Rule", ruleName, "created");
+        if (listener != null) {
+            listener.ruleCreated(rule);
+        }
     }
     
     public void createRule(String ruleName, String triggerCondition, 
@@ -59,32 +279,293 @@ public class Automation {
         createRule(ruleName, null, triggerCondition, action, targetDevices);
     }
     
-    // Method to simulate a trigger event
-    public void triggerEvent(Device device, String condition) {
-        for (int i = 0; i < ruleCount; i++) {
-            Rule rule = rules[i];
-            if (rule.getTriggerDevice() == device && 
-                rule.getTriggerCondition().equals(condition)) {
-                System.out.println("Executing rule: " + rule.getRuleName());
-                rule.execute();
+    public synchronized boolean removeRule(String ruleName) {
+        Rule rule = rules.remove(ruleName);
+        if (rule == null) {
+            return false;
+        }
+        
+        if (rule.condition != null) {
+            conditionsByDevice.computeIfPresent(rule.getTriggerDevice(), (device, list) -> {
+                list.remove(rule);
+                return list.isEmpty() ? null : list;
+            });
+            addDependencies(rule, -1);
+            rule.cancelPending();
+            for (String timer : rule.boundaryTimers) {
+                scheduler().cancel(timer);
+            }
+            if (conditionsByDevice.isEmpty() && eventSubscription != null) {
+                eventSubscription.cancel();
+                eventSubscription = null;
+            }
+        } else {
+            rulesByTrigger.computeIfPresent(triggerKey(rule.getTriggerDevice()), (device, byCondition) -> {
+                byCondition.computeIfPresent(rule.getTriggerCondition(), (condition, list) -> {
+                    list.remove(rule);
+                    return list.isEmpty() ? null : list;
+                });
+                return byCondition.isEmpty() ? null : byCondition;
+            });
+        }
+        EventLog.info("Rule", ruleName, "removed");
+        if (listener != null) {
+            listener.ruleRemoved(rule);
+        }
+        return true;
+    }
+    
+    public Rule getRule(String ruleName) {
+        return rules.get(ruleName);
+    }
+    
+    public int getRuleCount() {
+        return rules.size();
+    }
+    
+    // In creation order
+    public Rule[] getRules() {
+        Rule[] all = rules.values().toArray(new Rule[0]);
+        Arrays.sort(all, Comparator.comparingLong(rule -> rule.sequence));
+        return all;
+    }
+    
+    public void setRuleListener(RuleListener listener) {
+        this.listener = listener;
+    }
+    
+    // Feeds compiled conditions from the device event stream, subscribing while at least
+    // one condition rule exists. Only devices some condition reads are buffered, and the
+    // buffer is unbounded in devices, so a storm elsewhere in the fleet cannot evict a
+    // watched device; coalescing is fine, conditions only need each device's latest state.
+    public synchronized void subscribeTo(DeviceEventBus events) {
+        eventSource = events;
+        if (!conditionsByDevice.isEmpty() && eventSubscription == null) {
+            listen(events);
+        }
+    }
+    
+    private void listen(DeviceEventBus events) {
+        events.subscribe(new Flow.Subscriber<DeviceEvent>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                eventSubscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+            
+            @Override
+            public void onNext(DeviceEvent event) {
+                deviceChanged(event.getDevice(), event.isOn(), event.getStateValue(), event.getStateText());
             }
+            
+            @Override
+            public void onError(Throwable error) {
+                EventLog.error("Automation", null, "event stream failed:", error.getMessage());
+            }
+            
+            @Override
+            public void onComplete() {
+            }
+        }, Integer.MAX_VALUE, DeviceEventBus.Overflow.COALESCE, conditionsByDevice::containsKey);
+    }
+    
+    // Evaluates only the rules whose conditions read this device
+    public void deviceChanged(Device device, boolean on, int value, String text) {
+        List<Rule> watching = conditionsByDevice.get(device);
+        if (watching == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Rule> fired = new ArrayList<>(0);
+        collectFired(watching, on, value, text, fired);
+        metrics.recordLatency("rule_evaluate", System.nanoTime() - start);
+        if (!fired.isEmpty()) {
+            runCascade(fired, 0, new CascadeBudget(maxCascadeActions));
+        }
+    }
+    
+    // Applies an action another engine forwarded at the given cascade depth, and carries
+    // the cascade on from here with the same budget, so both bounds hold across engines.
+    // The sender already took this action from the budget.
+    public void applyForwarded(Rule rule, Device target, int depth, CascadeBudget budget) {
+        if (rule.applyTo(target) != Transition.CHANGED) {
+            return;
+        }
+        List<Rule> watching = conditionsByDevice.get(target);
+        if (watching == null) {
+            return;
+        }
+        List<Rule> fired = new ArrayList<>(0);
+        collectFired(watching, target.isOn(), target.getStateValue(), target.getStateText(), fired);
+        if (!fired.isEmpty()) {
+            runCascade(fired, depth + 1, budget);
+        }
+    }
+    
+    private static void collectFired(List<Rule> watching, boolean on, int value, String text,
+                                     Collection<Rule> fired) {
+        for (Rule rule : watching) {
+            if (rule.evaluate(on, value, text, false)) {
+                fired.add(rule);
+            }
+        }
+    }
+    
+    private void reevaluate(Rule rule) {
+        Device device = rule.getTriggerDevice();
+        if (rule.evaluate(device.isOn(), device.getStateValue(), device.getStateText(), true)) {
+            runCascade(Collections.singletonList(rule), 0, new CascadeBudget(maxCascadeActions));
+        }
+    }
+    
+    // Runs fired rules breadth first. Each level's actions are coalesced per target and
+    // slot, with the last rule winning, and condition rules reading a target that changed
+    // form the next level. The events those changes publish later find nothing new.
+    // The pass stops after maxCascadeDepth levels or once the budget of actions is spent.
+    // Actions on devices a forwarder claims leave with the current depth and the budget.
+    private void runCascade(List<Rule> fired, int startDepth, CascadeBudget budget) {
+        long start = System.nanoTime();
+        int depthLimit = maxCascadeDepth;
+        ActionForwarder remote = forwarder;
+        List<Rule> level = fired;
+        int depth = startDepth;
+        int actions = 0;
+        while (!level.isEmpty() && depth < depthLimit && budget.getRemaining() > 0) {
+            Map<Device, Map<String, Rule>> planned = new LinkedHashMap<>();
+            for (Rule rule : level) {
+                EventLog.info("Rule", rule.getRuleName(), "executing");
+                metrics.recordRuleFire(rule.getRuleName());
+                for (Device target : rule.targetDevices) {
+                    planned.computeIfAbsent(target, k -> new LinkedHashMap<>(2)).put(rule.slot, rule);
+                }
+            }
+            
+            Set<Rule> next = new LinkedHashSet<>();
+            for (Map.Entry<Device, Map<String, Rule>> entry : planned.entrySet()) {
+                Device target = entry.getKey();
+                boolean changed = false;
+                for (Rule rule : entry.getValue().values()) {
+                    if (!budget.take()) {
+                        continue;
+                    }
+                    actions++;
+                    if (remote != null && remote.forward(rule, target, depth, budget)) {
+                        continue;
+                    }
+                    changed |= rule.applyTo(target) == Transition.CHANGED;
+                }
+                List<Rule> watching = changed ? conditionsByDevice.get(target) : null;
+                if (watching != null) {
+                    collectFired(watching, target.isOn(), target.getStateValue(), target.getStateText(), next);
+                }
+            }
+            level = new ArrayList<>(next);
+            depth++;
+        }
+        if (!level.isEmpty()) {
+            EventLog.warn("Automation", null, "cascade stopped at levels:", depth, "actions:", actions);
         }
+        metrics.recordLatency("rule_cascade", System.nanoTime() - start);
+    }
+    
+    // Only condition rules feed back automatically, so only they contribute edges
+    private void checkCycle(Rule rule) throws AutomationException {
+        for (Device target : rule.targetDevices) {
+            if (target == rule.triggerDevice || reaches(target, rule.triggerDevice)) {
+                if (cyclePolicy == CyclePolicy.REJECT) {
+                    throw new AutomationException("Rule " + rule.getRuleName()
+                            + " would form a trigger cycle through " + target.getDeviceId());
+                }
+                rule.cyclic = true;
+                EventLog.warn("Rule", rule.getRuleName(), "forms a trigger cycle through", target.getDeviceId());
+                return;
+            }
+        }
+    }
+    
+    private boolean reaches(Device from, Device to) {
+        Set<Device> visited = new HashSet<>();
+        ArrayDeque<Device> pending = new ArrayDeque<>();
+        pending.add(from);
+        while (!pending.isEmpty()) {
+            Device device = pending.poll();
+            if (device == to) {
+                return true;
+            }
+            Map<Device, Integer> edges = dependencies.get(device);
+            if (edges != null) {
+                for (Device next : edges.keySet()) {
+                    if (visited.add(next)) {
+                        pending.add(next);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+    
+    private void addDependencies(Rule rule, int delta) {
+        Map<Device, Integer> edges = dependencies.computeIfAbsent(rule.triggerDevice, k -> new HashMap<>());
+        for (Device target : rule.targetDevices) {
+            edges.merge(target, delta, (a, b) -> a + b == 0 ? null : a + b);
+        }
+        if (edges.isEmpty()) {
+            dependencies.remove(rule.triggerDevice);
+        }
+    }
+    
+    private static Object triggerKey(Device device) {
+        return device != null ? device : NO_TRIGGER;
+    }
+    
+    private TaskScheduler scheduler() {
+        TaskScheduler current = scheduler;
+        if (current == null) {
+            current = TaskScheduler.getDefault();
+            scheduler = current;
+        }
+        return current;
+    }
+    
+    private int minuteOfDay() {
+        LocalTime now = LocalTime.now(scheduler().getClock());
+        return now.getHour() * 60 + now.getMinute();
+    }
+    
+    // Method to simulate a trigger event; a null device fires the time-based rules
+    public void triggerEvent(Device device, String condition) {
+        Map<String, List<Rule>> byCondition = rulesByTrigger.get(triggerKey(device));
+        if (byCondition == null) {
+            return;
+        }
+        List<Rule> matching = byCondition.get(condition);
+        if (matching == null) {
+            return;
+        }
+        
+        // The list is copy-on-write, so a rule action may safely create or remove rules
+        long start = System.nanoTime();
+        runCascade(matching, 0, new CascadeBudget(maxCascadeActions));
+        metrics.recordLatency("trigger_event", System.nanoTime() - start);
     }
     
-    // Vararg overloaded methods for scheduling
-    public void scheduleTask(String time, String action, Device... devices) {
-        System.out.println("Scheduled " + action + " at " + time + " for " + devices.length + " devices");
-        for (Device device : devices) {
+    // Vararg overloaded methods for scheduling; returns the schedule id per device (null if not schedulable)
+    public String[] scheduleTask(String time, String action, Device... devices) throws AutomationException {
+        EventLog.info("Schedule", action, "at", time, "for devices:", devices.length);
+        String[] scheduleIds = new String[devices.length];
+        for (int i = 0; i < devices.length; i++) {
+            Device device = devices[i];
             if (device instanceof Schedulable) {
-                ((Schedulable) device).scheduleTask(time, action);
+                scheduleIds[i] = ((Schedulable) device).scheduleTask(time, action);
             } else {
-                System.out.println(device.getName() + " is not schedulable");
+                EventLog.warn("Schedule", device.getName(), "is not schedulable");
             }
         }
+        return scheduleIds;
     }
     
-    public void scheduleTask(String time, Device... devices) {
-        scheduleTask(time, "ON", devices);
+    public String[] scheduleTask(String time, Device... devices) throws AutomationException {
+        return scheduleTask(time, "ON", devices);
     }
 }
 
@@ -0,0 +1,23 @@
+package com.smarthome.automation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Device actions left to one cascade. Every part of the cascade draws on the same budget,
+// including the parts forwarded to other engines, so maxCascadeActions bounds the whole
+// cascade rather than each engine's share of it.
+public final class CascadeBudget {
+    private final AtomicInteger remaining;
+
+    CascadeBudget(int actions) {
+        this.remaining = new AtomicInteger(Math.max(0, actions));
+    }
+
+    // Takes one action; false once the budget is spent
+    boolean take() {
+        return remaining.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0;
+    }
+
+    public int getRemaining() {
+        return remaining.get();
+    }
+}
@@ -0,0 +1,377 @@
+package com.smarthome.automation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.smarthome.devices.Device;
+import com.smarthome.exception.AutomationException;
+
+// A rule condition compiled once from text into a tree of predicate objects.
+//
+//   condition  := expr [for <n>s|m|h | for <n> seconds|minutes|hours] [hysteresis <n>]
+//   expr       := term (OR term)*
+//   term       := factor (AND factor)*
+//   factor     := NOT factor | ( expr ) | on | off | after HH:MM | before HH:MM
+//               | attribute op value
+//
+// Attributes read the trigger device's state: on, brightness, temperature, setpoint,
+// mode, load, motion, or the generic value/text slots. Examples:
+//   temperature > 28 for 5 minutes
+//   brightness < 20 AND after 22:00
+//   load >= 1500 hysteresis 100
+public class Condition {
+    // Attributes a condition reads; a state change outside this mask cannot affect it
+    public static final int POWER = 1;
+    public static final int VALUE = 2;
+    public static final int TEXT = 4;
+    public static final int TIME = 8;
+
+    // latched is true while the condition holds, so thresholds can apply hysteresis
+    interface Node {
+        boolean test(boolean on, int value, String text, int minuteOfDay, boolean latched);
+    }
+
+    private final String source;
+    private final Node root;
+    private final int attributes;
+    private final long forMillis;
+    private final int[] boundaries;
+
+    private Condition(String source, Node root, int attributes, long forMillis, int[] boundaries) {
+        this.source = source;
+        this.root = root;
+        this.attributes = attributes;
+        this.forMillis = forMillis;
+        this.boundaries = boundaries;
+    }
+
+    // Plain event names such as "motion" stay events; anything with an operator or time clause is a condition
+    public static boolean isCondition(String text) {
+        if (text == null) {
+            return false;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        return lower.matches(".*[<>=!].*") || lower.matches("(.*\\s)?(after|before)\\s.*");
+    }
+
+    public static Condition compile(String text, Device device) throws AutomationException {
+        if (device == null) {
+            throw new AutomationException("Condition needs a trigger device: " + text);
+        }
+        return new Parser(text, device).parse();
+    }
+
+    public boolean test(boolean on, int value, String text, int minuteOfDay, boolean latched) {
+        return root.test(on, value, text, minuteOfDay, latched);
+    }
+
+    // Getters
+    public String getSource() { return source; }
+    public int getAttributes() { return attributes; }
+    public long getForMillis() { return forMillis; }
+    // Minutes of the day at which time clauses change value
+    public int[] getBoundaries() { return boundaries.clone(); }
+
+    private static class Parser {
+        private final String source;
+        private final Device device;
+        private final List<String> tokens;
+        private int position;
+        private int attributes;
+        private double hysteresis;
+        private final List<Integer> boundaries = new ArrayList<>();
+
+        Parser(String source, Device device) throws AutomationException {
+            this.source = source;
+            this.device = device;
+            this.tokens = tokenize(source);
+        }
+
+        Condition parse() throws AutomationException {
+            // Suffixes first, so comparisons are built knowing the hysteresis margin
+            int end = tokens.size();
+            long forMillis = 0;
+            while (end >= 2) {
+                String keyword = tokens.get(end - 2).toLowerCase(Locale.ROOT);
+                if (keyword.equals("for")) {
+                    forMillis = parseDuration(tokens.get(end - 1));
+                    end -= 2;
+                } else if (end >= 3 && tokens.get(end - 3).equalsIgnoreCase("for")) {
+                    // "for 5 minutes" as well as "for 5m"
+                    forMillis = parseDuration(tokens.get(end - 2) + tokens.get(end - 1).charAt(0));
+                    end -= 3;
+                } else if (keyword.equals("hysteresis")) {
+                    hysteresis = parseNumber(tokens.get(end - 1));
+                    end -= 2;
+                } else {
+                    break;
+                }
+            }
+            List<String> body = new ArrayList<>(tokens.subList(0, end));
+            tokens.clear();
+            tokens.addAll(body);
+
+            Node root = expression();
+            if (position != tokens.size()) {
+                throw error("unexpected '" + tokens.get(position) + "'");
+            }
+            int[] times = new int[boundaries.size()];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = boundaries.get(i);
+            }
+            return new Condition(source, root, attributes, forMillis, times);
+        }
+
+        private Node expression() throws AutomationException {
+            Node left = term();
+            while (accept("or")) {
+                Node a = left;
+                Node b = term();
+                left = (on, value, text, minute, latched) -> a.test(on, value, text, minute, latched)
+                        || b.test(on, value, text, minute, latched);
+            }
+            return left;
+        }
+
+        private Node term() throws AutomationException {
+            Node left = factor();
+            while (accept("and")) {
+                Node a = left;
+                Node b = factor();
+                left = (on, value, text, minute, latched) -> a.test(on, value, text, minute, latched)
+                        && b.test(on, value, text, minute, latched);
+            }
+            return left;
+        }
+
+        private Node factor() throws AutomationException {
+            if (accept("not")) {
+                Node inner = factor();
+                // Inverting flips which side of each threshold the margin applies to
+                return (on, value, text, minute, latched) -> !inner.test(on, value, text, minute, !latched);
+            }
+            if (accept("(")) {
+                Node inner = expression();
+                expect(")");
+                return inner;
+            }
+            if (!operatorFollows() && accept("on")) {
+                attributes |= POWER;
+                return (on, value, text, minute, latched) -> on;
+            }
+            if (!operatorFollows() && accept("off")) {
+                attributes |= POWER;
+                return (on, value, text, minute, latched) -> !on;
+            }
+            if (accept("after")) {
+                int at = parseTime(next());
+                attributes |= TIME;
+                boundaries.add(at);
+                return (on, value, text, minute, latched) -> minute >= at;
+            }
+            if (accept("before")) {
+                int at = parseTime(next());
+                attributes |= TIME;
+                boundaries.add(at);
+                return (on, value, text, minute, latched) -> minute < at;
+            }
+            return comparison();
+        }
+
+        private Node comparison() throws AutomationException {
+            String attribute = next().toLowerCase(Locale.ROOT);
+            String operator = next();
+            String operand = next();
+            int slot = slotFor(attribute);
+            attributes |= slot;
+
+            if (slot == POWER) {
+                boolean target = operand.equalsIgnoreCase("true") || operand.equalsIgnoreCase("on");
+                if (!target && !operand.equalsIgnoreCase("false") && !operand.equalsIgnoreCase("off")) {
+                    throw error("on compares with ON/OFF, not " + operand);
+                }
+                return equality(operator, (on, value, text, minute, latched) -> on == target);
+            }
+            if (slot == TEXT) {
+                String target = unquote(operand);
+                return equality(operator, (on, value, text, minute, latched) -> target.equalsIgnoreCase(text));
+            }
+
+            double threshold = parseNumber(operand);
+            double margin = hysteresis;
+            switch (operator) {
+                case ">":
+                    return (on, value, text, minute, latched) -> value > (latched ? threshold - margin : threshold);
+                case ">=":
+                    return (on, value, text, minute, latched) -> value >= (latched ? threshold - margin : threshold);
+                case "<":
+                    return (on, value, text, minute, latched) -> value < (latched ? threshold + margin : threshold);
+                case "<=":
+                    return (on, value, text, minute, latched) -> value <= (latched ? threshold + margin : threshold);
+                default:
+                    return equality(operator, (on, value, text, minute, latched) -> value == threshold);
+            }
+        }
+
+        private Node equality(String operator, Node equals) throws AutomationException {
+            switch (operator) {
+                case "=":
+                case "==":
+                    return equals;
+                case "!=":
+                    return (on, value, text, minute, latched) -> !equals.test(on, value, text, minute, latched);
+                default:
+                    throw error("operator " + operator + " not allowed here");
+            }
+        }
+
+        // Checked against the trigger device so typos fail at rule creation, not at run time
+        private int slotFor(String attribute) throws AutomationException {
+            String type = device.getDeviceType();
+            switch (attribute) {
+                case "on":
+                    return POWER;
+                case "value":
+                    return VALUE;
+                case "text":
+                    return TEXT;
+                case "brightness":
+                    return requireType(attribute, VALUE, type, "Light");
+                case "temperature":
+                    return requireType(attribute, VALUE, type, "AirConditioner");
+                case "setpoint":
+                    return requireType(attribute, VALUE, type, "Thermostat");
+                case "load":
+                    return requireType(attribute, VALUE, type, "SmartPlug");
+                case "motion":
+                    return requireType(attribute, VALUE, type, "MotionSensor");
+                case "mode":
+                    return requireType(attribute, TEXT, type, "AirConditioner", "Thermostat");
+                default:
+                    throw error("unknown attribute " + attribute);
+            }
+        }
+
+        private int requireType(String attribute, int slot, String type, String... allowed) throws AutomationException {
+            for (String candidate : allowed) {
+                if (candidate.equals(type)) {
+                    return slot;
+                }
+            }
+            throw error(type + " has no attribute " + attribute);
+        }
+
+        private boolean accept(String token) {
+            if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean operatorFollows() {
+            if (position + 1 >= tokens.size()) {
+                return false;
+            }
+            char c = tokens.get(position + 1).charAt(0);
+            return c == '<' || c == '>' || c == '=' || c == '!';
+        }
+
+        private void expect(String token) throws AutomationException {
+            if (!accept(token)) {
+                throw error("expected '" + token + "'");
+            }
+        }
+
+        private String next() throws AutomationException {
+            if (position >= tokens.size()) {
+                throw error("unexpected end");
+            }
+            return tokens.get(position++);
+        }
+
+        private int parseTime(String token) throws AutomationException {
+            int colon = token.indexOf(':');
+            try {
+                int hours = Integer.parseInt(token.substring(0, colon));
+                int minutes = Integer.parseInt(token.substring(colon + 1));
+                if (colon > 0 && hours < 24 && minutes < 60) {
+                    return hours * 60 + minutes;
+                }
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                // Reported below
+            }
+            throw error("invalid time " + token);
+        }
+
+        private long parseDuration(String token) throws AutomationException {
+            try {
+                long amount = Long.parseLong(token.substring(0, token.length() - 1));
+                switch (Character.toLowerCase(token.charAt(token.length() - 1))) {
+                    case 's': return amount * 1000;
+                    case 'm': return amount * 60_000;
+                    case 'h': return amount * 3_600_000;
+                    default: break;
+                }
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                // Reported below
+            }
+            throw error("invalid duration " + token);
+        }
+
+        private double parseNumber(String token) throws AutomationException {
+            try {
+                return Double.parseDouble(token);
+            } catch (NumberFormatException e) {
+                throw error("expected a number, got " + token);
+            }
+        }
+
+        private static String unquote(String token) {
+            if (token.length() >= 2 && (token.charAt(0) == '\'' || token.charAt(0) == '"')) {
+                return token.substring(1, token.length() - 1);
+            }
+            return token;
+        }
+
+        private AutomationException error(String message) {
+            return new AutomationException("Invalid condition '" + source + "': " + message);
+        }
+
+        private List<String> tokenize(String text) throws AutomationException {
+            List<String> result = new ArrayList<>();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')') {
+                    result.add(String.valueOf(c));
+                    i++;
+                } else if (c == '<' || c == '>' || c == '=' || c == '!') {
+                    int start = i++;
+                    if (i < text.length() && text.charAt(i) == '=') {
+                        i++;
+                    }
+                    result.add(text.substring(start, i));
+                } else if (c == '\'' || c == '"') {
+                    int close = text.indexOf(c, i + 1);
+                    if (close < 0) {
+                        throw error("unterminated string");
+                    }
+                    result.add(text.substring(i, close + 1));
+                    i = close + 1;
+                } else {
+                    int start = i;
+                    while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                            && "()<>=!'\"".indexOf(text.charAt(i)) < 0) {
+                        i++;
+                    }
+                    result.add(text.substring(start, i));
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.smarthome.automation;
+
+// Notified when rules are added to or removed from an Automation
+public interface RuleListener {
+    void ruleCreated(Automation.Rule rule);
+    void ruleRemoved(Automation.Rule rule);
+}
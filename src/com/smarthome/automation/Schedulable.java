@@ -2,7 +2,10 @@
 
 package com.smarthome.automation;
 
+import com.smarthome.exception.AutomationException;
+
 public interface Schedulable {
-    void scheduleTask(String time, String action);
+    // Returns the id to pass to cancelSchedule
+    String scheduleTask(String time, String action) throws AutomationException;
     void cancelSchedule(String scheduleId);
 }
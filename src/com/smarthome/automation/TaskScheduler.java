@@ -0,0 +1,280 @@
+package com.smarthome.automation;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.smarthome.exception.AutomationException;
+import com.smarthome.logging.EventLog;
+
+// Time-based task engine built on a hierarchical timing wheel.
+// Level 0 has one bucket per tick and each higher level's buckets span a whole revolution of
+// the level below; far timers wait in a coarse bucket and cascade down as their slot comes
+// up, so a tick only touches timers that are due soon.
+// Scheduling and cancelling are O(1); a driver thread advances the wheel from the clock
+// and hands due tasks to a small worker pool. Tests can skip start() and call advanceTo()
+// with a fixed clock to fast-forward time.
+public class TaskScheduler {
+    private static final int WHEEL_BITS = 9;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int LEVELS = 4;
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+
+    private static TaskScheduler defaultScheduler;
+
+    // A pending task, linked into the bucket for its deadline tick
+    private static class Timer {
+        private final String scheduleId;
+        private final Runnable task;
+        private final long periodMillis;
+        private long deadlineMillis;
+        private int level;
+        private int bucket;
+        private Timer prev;
+        private Timer next;
+
+        Timer(String scheduleId, Runnable task, long deadlineMillis, long periodMillis) {
+            this.scheduleId = scheduleId;
+            this.task = task;
+            this.deadlineMillis = deadlineMillis;
+            this.periodMillis = periodMillis;
+        }
+    }
+
+    private final Clock clock;
+    private final long tickMillis;
+    private final long startMillis;
+    private final ExecutorService workers;
+    private final Timer[][] wheel;
+    private final Map<String, Timer> timers;
+    private final AtomicLong nextId;
+    private long currentTick;
+    private Thread driver;
+
+    public TaskScheduler() {
+        this(Clock.systemDefaultZone(), 100, Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "scheduler-worker");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public TaskScheduler(Clock clock, long tickMillis, ExecutorService workers) {
+        this.clock = clock;
+        this.tickMillis = tickMillis;
+        this.startMillis = clock.millis();
+        this.workers = workers;
+        this.wheel = new Timer[LEVELS][WHEEL_SIZE];
+        this.timers = new HashMap<>();
+        this.nextId = new AtomicLong();
+        this.currentTick = 0;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    // Shared scheduler used by Schedulable devices; started on first use
+    public static synchronized TaskScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new TaskScheduler();
+            defaultScheduler.start();
+        }
+        return defaultScheduler;
+    }
+
+    public static synchronized void setDefault(TaskScheduler scheduler) {
+        defaultScheduler = scheduler;
+    }
+
+    // Accepts "HH:MM" (once), "daily HH:MM" and "every <n>s|m|h"; returns the schedule id
+    public String schedule(String time, Runnable task) throws AutomationException {
+        long now = clock.millis();
+        long deadline;
+        long period;
+        String spec = time.trim();
+        try {
+            if (spec.startsWith("every ")) {
+                period = parseInterval(spec.substring(6).trim());
+                deadline = now + period;
+            } else if (spec.startsWith("daily ")) {
+                deadline = nextOccurrence(LocalTime.parse(spec.substring(6).trim()));
+                period = DAY_MILLIS;
+            } else {
+                deadline = nextOccurrence(LocalTime.parse(spec));
+                period = 0;
+            }
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new AutomationException("Invalid schedule time: " + time);
+        }
+        return schedule(deadline, period, task);
+    }
+
+    public synchronized String schedule(long deadlineMillis, long periodMillis, Runnable task) {
+        String scheduleId = "S" + nextId.incrementAndGet();
+        Timer timer = new Timer(scheduleId, task, deadlineMillis, periodMillis);
+        timers.put(scheduleId, timer);
+        insert(timer, currentTick + 1);
+        return scheduleId;
+    }
+
+    public synchronized boolean cancel(String scheduleId) {
+        Timer timer = timers.remove(scheduleId);
+        if (timer == null) {
+            return false;
+        }
+        unlink(timer);
+        return true;
+    }
+
+    public synchronized int getPendingCount() {
+        return timers.size();
+    }
+
+    // Fires every task whose deadline is at or before the given time
+    public synchronized void advanceTo(long nowMillis) {
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            // Cascade from the top so timers moved down a level can move again this tick
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1)));
+                }
+            }
+            Timer[] ticks = wheel[0];
+            int bucket = (int) (currentTick & (WHEEL_SIZE - 1));
+            Timer timer = ticks[bucket];
+            while (timer != null) {
+                Timer next = timer.next;
+                try {
+                    workers.execute(timer.task);
+                } catch (RejectedExecutionException e) {
+                    // The worker pool is shut down: leave this tick's timers in place and stop
+                    // driving, rather than let the exception kill the driver thread
+                    currentTick--;
+                    stopDriver();
+                    EventLog.warn("Scheduler", timer.scheduleId, "workers shut down, scheduler stopped");
+                    return;
+                }
+                unlink(timer);
+                if (timer.periodMillis > 0) {
+                    timer.deadlineMillis += timer.periodMillis;
+                    insert(timer, currentTick + 1);
+                } else {
+                    timers.remove(timer.scheduleId);
+                }
+                timer = next;
+            }
+        }
+    }
+
+    private void cascade(int level, int bucket) {
+        Timer timer = wheel[level][bucket];
+        wheel[level][bucket] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            insert(timer, currentTick);
+            timer = next;
+        }
+    }
+
+    public synchronized void start() {
+        if (driver != null) {
+            return;
+        }
+        driver = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                advanceTo(clock.millis());
+                try {
+                    Thread.sleep(tickMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "scheduler-driver");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    public synchronized void shutdown() {
+        stopDriver();
+        workers.shutdown();
+    }
+
+    private void stopDriver() {
+        if (driver != null) {
+            driver.interrupt();
+            driver = null;
+        }
+    }
+
+    // Links the timer into the lowest level whose span covers its deadline, never earlier than minTick
+    private void insert(Timer timer, long minTick) {
+        long deadlineTick = (timer.deadlineMillis - startMillis + tickMillis - 1) / tickMillis;
+        if (deadlineTick < minTick) {
+            deadlineTick = minTick;
+        }
+        long delta = deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        // Past the top level's span the timer re-cascades into the top level until it is in range
+        timer.level = level;
+        timer.bucket = (int) ((deadlineTick >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1));
+        Timer[] buckets = wheel[level];
+        timer.prev = null;
+        timer.next = buckets[timer.bucket];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        buckets[timer.bucket] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            wheel[timer.level][timer.bucket] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    private long nextOccurrence(LocalTime time) {
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        ZonedDateTime next = now.with(time);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        return next.toInstant().toEpochMilli();
+    }
+
+    private static long parseInterval(String interval) {
+        if (interval.length() < 2) {
+            throw new NumberFormatException(interval);
+        }
+        long amount = Long.parseLong(interval.substring(0, interval.length() - 1));
+        if (amount <= 0) {
+            throw new NumberFormatException(interval);
+        }
+        switch (interval.charAt(interval.length() - 1)) {
+            case 's': return Duration.ofSeconds(amount).toMillis();
+            case 'm': return Duration.ofMinutes(amount).toMillis();
+            case 'h': return Duration.ofHours(amount).toMillis();
+            default: throw new NumberFormatException(interval);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.smarthome.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.smarthome.automation.TaskScheduler;
+import com.smarthome.core.DeviceQuery;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.Device;
+import com.smarthome.exception.SystemException;
+import com.smarthome.logging.EventLog;
+import com.smarthome.user.Session;
+
+// One member of a cluster of SmartHomeSystems that split device ownership by consistent
+// hashing on deviceId. Any node accepts a command and forwards it to the owner. The owner
+// applies it and copies the device's new state to its follower before replying, so an
+// acknowledged command survives the owner's loss. An unreachable node is dropped from this
+// node's ring after FAILURE_THRESHOLD consecutive failed requests, its followers take over
+// the devices they replicate, and the command is retried there. Dropped members are pinged
+// every PROBE_INTERVAL_MILLIS and rejoin the ring once they answer. Delivery is
+// at-least-once: a command whose reply was lost may apply twice, which state-setting
+// commands tolerate. Nodes trust each other, so forwarded commands run under the owner's
+// own session.
+public class ClusterNode {
+    private static final byte MSG_COMMAND = 1;
+    private static final byte MSG_ADD = 2;
+    private static final byte MSG_REPLICATE = 3;
+    private static final byte MSG_PING = 4;
+    private static final int MAX_HOPS = 8;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long PROBE_INTERVAL_MILLIS = 1000;
+
+    private final String nodeId;
+    private final SmartHomeSystem system;
+    private final Session session;
+    private final Transport transport;
+    private final ExecutorService executor;
+    private volatile HashRing ring;
+    // A peer that has not replied within this long is treated as unreachable
+    private volatile long requestTimeoutMillis = 5000;
+    // Consecutive failed requests per peer, and the peers dropped for failing
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+    private final Set<String> dropped = ConcurrentHashMap.newKeySet();
+    private final String probeId;
+
+    // Lamport clock ordering replica versions across owners
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    // Set while a command is applied, whose replication is then synchronous
+    private final ThreadLocal<Boolean> applying = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    public ClusterNode(String nodeId, SmartHomeSystem system, Session session, Transport transport,
+                       Collection<String> members) throws IOException {
+        this.nodeId = nodeId;
+        this.system = system;
+        this.session = session;
+        this.transport = transport;
+        this.ring = new HashRing(members).with(nodeId);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        system.setChangeListener(this::deviceChanged);
+        transport.bind(nodeId, this::handle);
+        TaskScheduler scheduler = TaskScheduler.getDefault();
+        this.probeId = scheduler.schedule(scheduler.getClock().millis() + PROBE_INTERVAL_MILLIS,
+                PROBE_INTERVAL_MILLIS, () -> executor.execute(this::probeDropped));
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public SmartHomeSystem getSystem() {
+        return system;
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    public String ownerOf(String deviceId) {
+        return ring.ownerOf(deviceId);
+    }
+
+    // Completes with the transition on the owner, wherever that is
+    public CompletableFuture<Transition> control(String deviceId, String command, String... parameters) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(deviceId, command, parameters, 0);
+            } catch (SystemException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    // Registers the device by value on its owner and replica; false if the id is taken
+    public CompletableFuture<Boolean> addDevice(Device device) {
+        byte[] record = encodeDevice(MSG_ADD, 0, device);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return add(device.getDeviceId(), record);
+            } catch (SystemException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    public synchronized void memberJoined(String member) {
+        dropped.remove(member);
+        failures.remove(member);
+        if (!ring.contains(member)) {
+            HashRing previous = ring;
+            ring = previous.with(member);
+            executor.execute(() -> rebalance(previous, ring));
+        }
+    }
+
+    public synchronized void memberLeft(String member) {
+        if (ring.contains(member) && !member.equals(nodeId)) {
+            HashRing previous = ring;
+            ring = previous.without(member);
+            EventLog.warn("Cluster", nodeId, "dropped member", member);
+            executor.execute(() -> rebalance(previous, ring));
+        }
+    }
+
+    // Stops serving; to the other nodes this looks the same as a crash
+    public void shutdown() {
+        TaskScheduler.getDefault().cancel(probeId);
+        transport.unbind(nodeId);
+        system.setChangeListener(null);
+        executor.shutdown();
+    }
+
+    // Pings each dropped member once; those that answer rejoin the ring
+    public void probeDropped() {
+        for (String member : dropped) {
+            try {
+                call(member, new byte[] { MSG_PING });
+                EventLog.info("Cluster", nodeId, "member rejoined", member);
+                memberJoined(member);
+            } catch (IOException | SystemException e) {
+                // Still unreachable; try again on the next probe
+            }
+        }
+    }
+
+    // A single lost request is not enough to drop a peer; the caller retries until the
+    // threshold is reached
+    private void peerFailed(String member) {
+        if (failures.merge(member, 1, Integer::sum) >= FAILURE_THRESHOLD && !member.equals(nodeId)) {
+            failures.remove(member);
+            memberLeft(member);
+            dropped.add(member);
+        }
+    }
+
+    private Transition execute(String deviceId, String command, String[] parameters, int hops)
+            throws SystemException {
+        while (true) {
+            String owner = ring.ownerOf(deviceId);
+            if (owner.equals(nodeId)) {
+                return applyLocal(deviceId, command, parameters);
+            }
+            if (hops >= MAX_HOPS) {
+                throw new SystemException("Too many forwards for device " + deviceId);
+            }
+            try {
+                byte[] reply = call(owner, encodeCommand(hops + 1, deviceId, command, parameters));
+                return Transition.valueOf(new String(reply, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                peerFailed(owner);
+            }
+        }
+    }
+
+    private Transition applyLocal(String deviceId, String command, String[] parameters) throws SystemException {
+        Transition result;
+        applying.set(Boolean.TRUE);
+        try {
+            result = system.controlDevice(session, deviceId, command, parameters);
+        } finally {
+            applying.set(Boolean.FALSE);
+        }
+        if (result == Transition.CHANGED) {
+            replicate(system.getDevice(deviceId));
+        }
+        return result;
+    }
+
+    private boolean add(String deviceId, byte[] record) throws SystemException {
+        while (true) {
+            String owner = ring.ownerOf(deviceId);
+            if (owner.equals(nodeId)) {
+                if (system.getDevice(deviceId) != null) {
+                    return false;
+                }
+                Device device;
+                try {
+                    device = restore(record, true);
+                } catch (IOException e) {
+                    throw new SystemException("Corrupt device record for " + deviceId);
+                }
+                if (device == null) {
+                    throw new SystemException("Unknown device type for " + deviceId);
+                }
+                replicate(device);
+                return true;
+            }
+            try {
+                return call(owner, record)[0] != 0;
+            } catch (IOException e) {
+                peerFailed(owner);
+            }
+        }
+    }
+
+    // Copies the device to its follower and waits for the acknowledgement
+    private void replicate(Device device) throws SystemException {
+        while (true) {
+            String follower = ring.followerOf(device.getDeviceId());
+            if (follower == null || follower.equals(nodeId)) {
+                return;
+            }
+            long version = clock.incrementAndGet();
+            versions.put(device.getDeviceId(), version);
+            try {
+                call(follower, encodeDevice(MSG_REPLICATE, version, device));
+                return;
+            } catch (IOException e) {
+                peerFailed(follower);
+            }
+        }
+    }
+
+    // Changes that did not come through a command, such as rule actions, replicate in the background
+    private void deviceChanged(Device device) {
+        if (applying.get() || !nodeId.equals(ring.ownerOf(device.getDeviceId()))) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                replicate(device);
+            } catch (SystemException e) {
+                EventLog.error("Cluster", device.getDeviceId(), "replication failed:", e.getMessage());
+            }
+        });
+    }
+
+    // After a membership change, hands each device this node was or is now responsible for
+    // to its new owner and follower
+    private void rebalance(HashRing previous, HashRing next) {
+        for (Device device : system.findDevices(new DeviceQuery())) {
+            String deviceId = device.getDeviceId();
+            if (!nodeId.equals(previous.ownerOf(deviceId)) && !nodeId.equals(next.ownerOf(deviceId))) {
+                continue;
+            }
+            long version = clock.incrementAndGet();
+            versions.put(deviceId, version);
+            byte[] record = encodeDevice(MSG_REPLICATE, version, device);
+            for (String target : new String[] { next.ownerOf(deviceId), next.followerOf(deviceId) }) {
+                if (target != null && !target.equals(nodeId)) {
+                    try {
+                        call(target, record);
+                    } catch (IOException | SystemException e) {
+                        EventLog.warn("Cluster", deviceId, "handoff failed to", target);
+                    }
+                }
+            }
+        }
+    }
+
+    private byte[] handle(byte[] request) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+        switch (in.readByte()) {
+            case MSG_COMMAND:
+                int hops = in.readInt();
+                String deviceId = in.readUTF();
+                String command = in.readUTF();
+                String[] parameters = new String[in.readInt()];
+                for (int i = 0; i < parameters.length; i++) {
+                    parameters[i] = in.readUTF();
+                }
+                return execute(deviceId, command, parameters, hops).name().getBytes(StandardCharsets.UTF_8);
+            case MSG_ADD:
+                in.readLong();
+                return new byte[] { (byte) (add(in.readUTF(), request) ? 1 : 0) };
+            case MSG_REPLICATE:
+                restore(request, false);
+                return new byte[0];
+            case MSG_PING:
+                return new byte[0];
+            default:
+                throw new SystemException("Unknown cluster message");
+        }
+    }
+
+    // Applies a device record unless a newer version of the device was already applied
+    private Device restore(byte[] record, boolean force) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        in.readByte();
+        long version = in.readLong();
+        String deviceId = in.readUTF();
+        clock.accumulateAndGet(version, Math::max);
+        if (!force) {
+            Long applied = versions.get(deviceId);
+            if (applied != null && applied >= version) {
+                return system.getDevice(deviceId);
+            }
+            versions.put(deviceId, version);
+        }
+        String type = in.readUTF();
+        String name = readString(in);
+        String location = readString(in);
+        return system.restoreDevice(type, deviceId, name, location,
+                in.readBoolean(), in.readDouble(), in.readInt(), readString(in));
+    }
+
+    private byte[] call(String target, byte[] payload) throws IOException, SystemException {
+        try {
+            byte[] reply = transport.request(target, payload).get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (!failures.isEmpty()) {
+                failures.remove(target);
+            }
+            return reply;
+        } catch (TimeoutException e) {
+            throw new IOException("No reply from " + target + " within " + requestTimeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof TimeoutException) {
+                throw new IOException("No reply from " + target + " within " + requestTimeoutMillis + " ms");
+            }
+            if (cause instanceof SystemException) {
+                throw (SystemException) cause;
+            }
+            throw new SystemException(String.valueOf(cause));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted waiting for " + target);
+        }
+    }
+
+    private static byte[] encodeCommand(int hops, String deviceId, String command, String[] parameters) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(MSG_COMMAND);
+            out.writeInt(hops);
+            out.writeUTF(deviceId);
+            out.writeUTF(command);
+            out.writeInt(parameters.length);
+            for (String parameter : parameters) {
+                out.writeUTF(parameter);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeDevice(byte type, long version, Device device) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            out.writeLong(version);
+            out.writeUTF(device.getDeviceId());
+            out.writeUTF(device.getDeviceType());
+            writeString(out, device.getName());
+            writeString(out, device.getLocation());
+            out.writeBoolean(device.isOn());
+            out.writeDouble(device.getEnergyConsumption());
+            out.writeInt(device.getStateValue());
+            writeString(out, device.getStateText());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
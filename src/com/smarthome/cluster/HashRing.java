@@ -0,0 +1,96 @@
+package com.smarthome.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Consistent hashing of device ids onto node ids. Each node holds VIRTUAL_NODES points on
+// the ring, so a join or leave moves only about 1/N of the devices. The owner of an id is
+// the first point clockwise from its hash, and its follower is the next distinct node.
+// Immutable; membership changes return a new ring.
+public class HashRing {
+    private static final int VIRTUAL_NODES = 64;
+
+    private final TreeMap<Integer, String> points;
+    private final TreeSet<String> nodes;
+
+    public HashRing(Iterable<String> nodeIds) {
+        this.points = new TreeMap<>();
+        this.nodes = new TreeSet<>();
+        for (String nodeId : nodeIds) {
+            nodes.add(nodeId);
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                points.put(hash(nodeId + "#" + i), nodeId);
+            }
+        }
+    }
+
+    public HashRing with(String nodeId) {
+        List<String> members = new ArrayList<>(nodes);
+        members.add(nodeId);
+        return new HashRing(members);
+    }
+
+    public HashRing without(String nodeId) {
+        List<String> members = new ArrayList<>(nodes);
+        members.remove(nodeId);
+        return new HashRing(members);
+    }
+
+    public boolean contains(String nodeId) {
+        return nodes.contains(nodeId);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public List<String> getNodes() {
+        return new ArrayList<>(nodes);
+    }
+
+    // Null on an empty ring
+    public String ownerOf(String deviceId) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Integer, String> entry = points.ceilingEntry(hash(deviceId));
+        return entry != null ? entry.getValue() : points.firstEntry().getValue();
+    }
+
+    // The node that holds the replica; null when there is only one node
+    public String followerOf(String deviceId) {
+        if (nodes.size() < 2) {
+            return null;
+        }
+        int start = hash(deviceId);
+        String owner = ownerOf(deviceId);
+        for (String nodeId : points.tailMap(start, true).values()) {
+            if (!nodeId.equals(owner)) {
+                return nodeId;
+            }
+        }
+        for (String nodeId : points.values()) {
+            if (!nodeId.equals(owner)) {
+                return nodeId;
+            }
+        }
+        return null;
+    }
+
+    // FNV-1a over the UTF-8 bytes, finished with a mixing step to spread short ids
+    private static int hash(String key) {
+        int hash = 0x811c9dc5;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
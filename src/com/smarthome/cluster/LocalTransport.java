@@ -0,0 +1,66 @@
+package com.smarthome.cluster;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// In-process transport for running several nodes in one JVM. Requests run on a shared
+// pool, so a node forwarding from inside a handler never blocks its own caller.
+// Unbinding a node makes it unreachable, which is how a crash is simulated.
+public class LocalTransport implements Transport {
+    private final Map<String, Handler> handlers;
+    private final ExecutorService executor;
+
+    public LocalTransport() {
+        this.handlers = new ConcurrentHashMap<>();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "local-transport");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void bind(String nodeId, Handler handler) throws IOException {
+        if (handlers.putIfAbsent(nodeId, handler) != null) {
+            throw new IOException("Node already bound: " + nodeId);
+        }
+    }
+
+    @Override
+    public void unbind(String nodeId) {
+        handlers.remove(nodeId);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> request(String nodeId, byte[] payload) {
+        CompletableFuture<byte[]> reply = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                Handler handler = handlers.get(nodeId);
+                if (handler == null) {
+                    reply.completeExceptionally(new IOException("Node unreachable: " + nodeId));
+                    return;
+                }
+                try {
+                    reply.complete(handler.handle(payload));
+                } catch (Exception e) {
+                    reply.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            reply.completeExceptionally(new IOException("Transport closed"));
+        }
+        return reply;
+    }
+
+    @Override
+    public void close() {
+        handlers.clear();
+        executor.shutdown();
+    }
+}
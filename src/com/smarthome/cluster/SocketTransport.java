@@ -0,0 +1,299 @@
+package com.smarthome.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.smarthome.exception.SystemException;
+
+// TCP transport for nodes in separate processes or on loopback. Each peer pair shares one
+// connection carrying many outstanding requests, matched to replies by request id.
+// Request frame: length, id, payload. Reply frame: length, id, status, payload, where
+// a failed status carries the remote error message.
+public class SocketTransport implements Transport {
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_ERROR = 1;
+    private static final int MAX_FRAME = 1 << 24;
+
+    // One outbound connection and the requests waiting on it
+    private class Connection {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final Map<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+        private volatile boolean closed;
+
+        Connection(String nodeId, InetSocketAddress address) throws IOException {
+            this.socket = new Socket();
+            this.socket.setTcpNoDelay(true);
+            this.socket.connect(address, 2000);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            Thread reader = new Thread(() -> readReplies(nodeId, in), "transport-client-" + nodeId);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(long id, byte[] payload, CompletableFuture<byte[]> reply) throws IOException {
+            pending.put(id, reply);
+            // A peer that hangs without closing the socket must not pin requests forever
+            reply.orTimeout(requestTimeoutMillis, TimeUnit.MILLISECONDS)
+                 .whenComplete((result, failure) -> pending.remove(id));
+            synchronized (out) {
+                out.writeInt(payload.length);
+                out.writeLong(id);
+                out.write(payload);
+                out.flush();
+            }
+            if (closed) {
+                failPending(new IOException("Connection closed"));
+            }
+        }
+
+        private void readReplies(String nodeId, DataInputStream in) {
+            try {
+                while (true) {
+                    int length = readLength(in);
+                    long id = in.readLong();
+                    byte status = in.readByte();
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CompletableFuture<byte[]> reply = pending.remove(id);
+                    if (reply == null) {
+                        continue;
+                    }
+                    if (status == STATUS_OK) {
+                        reply.complete(payload);
+                    } else {
+                        reply.completeExceptionally(new SystemException(new String(payload, StandardCharsets.UTF_8)));
+                    }
+                }
+            } catch (IOException e) {
+                close(nodeId);
+            }
+        }
+
+        void close(String nodeId) {
+            closed = true;
+            connections.remove(nodeId, this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already broken
+            }
+            failPending(new IOException("Node unreachable: " + nodeId));
+        }
+
+        private void failPending(IOException failure) {
+            for (Long id : pending.keySet()) {
+                CompletableFuture<byte[]> reply = pending.remove(id);
+                if (reply != null) {
+                    reply.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    private final Map<String, InetSocketAddress> addresses;
+    private final Map<String, ServerSocket> servers;
+    private final Map<String, Set<Socket>> accepted;
+    private final Map<String, Connection> connections;
+    private final ExecutorService handlers;
+    private final AtomicLong nextId;
+    private final long requestTimeoutMillis;
+
+    public SocketTransport(Map<String, InetSocketAddress> addresses) {
+        this(addresses, 5000);
+    }
+
+    public SocketTransport(Map<String, InetSocketAddress> addresses, long requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.addresses = new ConcurrentHashMap<>(addresses);
+        this.servers = new ConcurrentHashMap<>();
+        this.accepted = new ConcurrentHashMap<>();
+        this.connections = new ConcurrentHashMap<>();
+        this.handlers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "transport-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.nextId = new AtomicLong();
+    }
+
+    @Override
+    public void bind(String nodeId, Handler handler) throws IOException {
+        InetSocketAddress address = addresses.get(nodeId);
+        if (address == null) {
+            throw new IOException("No address for node: " + nodeId);
+        }
+        ServerSocket server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(address);
+        servers.put(nodeId, server);
+        Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+        accepted.put(nodeId, sockets);
+
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    socket.setTcpNoDelay(true);
+                    sockets.add(socket);
+                    // unbind closes the server before the sockets, so one of the two sees this one
+                    if (server.isClosed()) {
+                        socket.close();
+                        break;
+                    }
+                    Thread reader = new Thread(() -> serve(server, socket, handler, sockets), "transport-server-" + nodeId);
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException e) {
+                    // Closed by unbind
+                }
+            }
+        }, "transport-accept-" + nodeId);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void unbind(String nodeId) {
+        ServerSocket server = servers.remove(nodeId);
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+        Set<Socket> sockets = accepted.remove(nodeId);
+        if (sockets != null) {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Nothing left to release
+                }
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<byte[]> request(String nodeId, byte[] payload) {
+        CompletableFuture<byte[]> reply = new CompletableFuture<>();
+        try {
+            connection(nodeId).send(nextId.incrementAndGet(), payload, reply);
+        } catch (IOException e) {
+            Connection broken = connections.get(nodeId);
+            if (broken != null) {
+                broken.close(nodeId);
+            }
+            reply.completeExceptionally(new IOException("Node unreachable: " + nodeId, e));
+        }
+        return reply;
+    }
+
+    @Override
+    public void close() {
+        for (String nodeId : servers.keySet()) {
+            unbind(nodeId);
+        }
+        for (Map.Entry<String, Connection> entry : connections.entrySet()) {
+            entry.getValue().close(entry.getKey());
+        }
+        handlers.shutdown();
+    }
+
+    private Connection connection(String nodeId) throws IOException {
+        Connection connection = connections.get(nodeId);
+        if (connection != null) {
+            return connection;
+        }
+        InetSocketAddress address = addresses.get(nodeId);
+        if (address == null) {
+            throw new IOException("No address for node: " + nodeId);
+        }
+        synchronized (connections) {
+            connection = connections.get(nodeId);
+            if (connection == null) {
+                connection = new Connection(nodeId, address);
+                connections.put(nodeId, connection);
+            }
+            return connection;
+        }
+    }
+
+    private void serve(ServerSocket server, Socket socket, Handler handler, Set<Socket> sockets) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            while (true) {
+                int length = readLength(in);
+                long id = in.readLong();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (server.isClosed()) {
+                    // Unbound: the node no longer answers, as if it had crashed
+                    break;
+                }
+                // Handlers may forward to other nodes, so they never run on the reader
+                handlers.execute(() -> reply(out, id, handler, payload));
+            }
+        } catch (IOException e) {
+            // Peer went away
+        } finally {
+            sockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    // A length outside the frame limit means a corrupt or hostile stream; drop the connection
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("Bad frame length: " + length);
+        }
+        return length;
+    }
+
+    private static void reply(DataOutputStream out, long id, Handler handler, byte[] payload) {
+        byte status;
+        byte[] result;
+        try {
+            result = handler.handle(payload);
+            status = STATUS_OK;
+        } catch (Exception e) {
+            String message = e.getMessage() != null ? e.getMessage() : e.toString();
+            result = message.getBytes(StandardCharsets.UTF_8);
+            status = STATUS_ERROR;
+        }
+        try {
+            synchronized (out) {
+                out.writeInt(result.length);
+                out.writeLong(id);
+                out.writeByte(status);
+                out.write(result);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The reader side notices the broken socket
+        }
+    }
+}
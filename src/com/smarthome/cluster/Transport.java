@@ -0,0 +1,21 @@
+package com.smarthome.cluster;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+// Request/reply messaging between cluster nodes. A request to a node that cannot be
+// reached fails with an IOException, which nodes treat as that member having left.
+public interface Transport {
+    // Serves requests addressed to this node; the reply is the handler's return value
+    interface Handler {
+        byte[] handle(byte[] request) throws Exception;
+    }
+
+    void bind(String nodeId, Handler handler) throws IOException;
+
+    void unbind(String nodeId);
+
+    CompletableFuture<byte[]> request(String nodeId, byte[] payload);
+
+    void close();
+}
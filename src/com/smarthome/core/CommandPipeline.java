@@ -0,0 +1,182 @@
+package com.smarthome.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.smarthome.devices.Device;
+import com.smarthome.metrics.MetricsRegistry;
+
+// Asynchronous command execution with one ordered queue per device.
+// Different devices run in parallel on the worker pool; commands that reach the same
+// device within one batch window are merged so only the final state is applied. Each
+// future completes with the transition of the command that was applied in its place.
+// A device's queue is dropped once it drains, so idle devices hold no memory here.
+public class CommandPipeline {
+    // A queued command and the future its caller is waiting on
+    private static class Command {
+        private final String command;
+        private final String[] parameters;
+        private final CompletableFuture<Transition> future;
+
+        Command(String command, String[] parameters) {
+            this.command = command;
+            this.parameters = parameters;
+            this.future = new CompletableFuture<>();
+        }
+
+        // ON and OFF both set power, so the later one replaces the earlier
+        String slot() {
+            return command.equals("ON") || command.equals("OFF") ? "POWER" : command;
+        }
+    }
+
+    private class DeviceQueue {
+        private final Device device;
+        private List<Command> pending = new ArrayList<>();
+        private boolean scheduled;
+        // Removed from the map; submitters must fetch a fresh queue
+        private boolean retired;
+
+        DeviceQueue(Device device) {
+            this.device = device;
+        }
+
+        synchronized boolean add(Command command) {
+            if (retired) {
+                return false;
+            }
+            pending.add(command);
+            if (!scheduled) {
+                scheduled = true;
+                scheduleOrFail();
+            }
+            return true;
+        }
+
+        void drain() {
+            List<Command> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+
+            for (List<Command> merged : merge(batch)) {
+                Command winner = merged.get(merged.size() - 1);
+                try {
+                    Transition result = device.apply(winner.command, winner.parameters);
+                    metrics.recordTransition(result);
+                    for (Command command : merged) {
+                        command.future.complete(result);
+                    }
+                } catch (RuntimeException e) {
+                    for (Command command : merged) {
+                        command.future.completeExceptionally(e);
+                    }
+                }
+            }
+
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    retire();
+                } else {
+                    scheduleOrFail();
+                }
+            }
+        }
+
+        // Once the workers are shut down, fails what is queued instead of stranding it;
+        // caller holds this
+        private void scheduleOrFail() {
+            try {
+                schedule(this);
+            } catch (RejectedExecutionException e) {
+                for (Command command : pending) {
+                    command.future.completeExceptionally(e);
+                }
+                pending = new ArrayList<>();
+                retire();
+            }
+        }
+
+        // Caller holds this
+        private void retire() {
+            scheduled = false;
+            retired = true;
+            queues.remove(device, this);
+        }
+    }
+
+    private final ScheduledExecutorService workers;
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final Map<Device, DeviceQueue> queues;
+    private volatile long batchWindowMillis;
+
+    public CommandPipeline(int threads, long batchWindowMillis) {
+        this.workers = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "command-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queues = new ConcurrentHashMap<>();
+        this.batchWindowMillis = batchWindowMillis;
+    }
+
+    public CompletableFuture<Transition> submit(Device device, String command, String... parameters) {
+        Command queued = new Command(command, parameters);
+        while (!queues.computeIfAbsent(device, DeviceQueue::new).add(queued)) {
+            // Lost a race with the queue draining empty; the next lookup creates a new one
+        }
+        return queued.future;
+    }
+
+    // Devices with commands queued or running
+    public int getActiveDeviceCount() {
+        return queues.size();
+    }
+
+    public void setBatchWindowMillis(long batchWindowMillis) {
+        this.batchWindowMillis = batchWindowMillis;
+    }
+
+    public long getBatchWindowMillis() {
+        return batchWindowMillis;
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    private void schedule(DeviceQueue queue) {
+        long window = batchWindowMillis;
+        if (window > 0) {
+            workers.schedule(queue::drain, window, TimeUnit.MILLISECONDS);
+        } else {
+            workers.execute(queue::drain);
+        }
+    }
+
+    // Groups a batch by slot; the last command in each group wins, and the groups run in
+    // the order their winners were submitted so the device sees the same sequence
+    private static List<List<Command>> merge(List<Command> batch) {
+        Map<String, List<Command>> bySlot = new LinkedHashMap<>();
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            Command command = batch.get(i);
+            bySlot.computeIfAbsent(command.slot(), k -> new ArrayList<>()).add(command);
+        }
+        List<List<Command>> groups = new ArrayList<>(bySlot.values());
+        Collections.reverse(groups);
+        for (List<Command> group : groups) {
+            Collections.reverse(group);
+        }
+        return groups;
+    }
+}
@@ -1,8 +1,16 @@
-
 package com.smarthome.core;
 
 // Interface definition for controllable devices
 public interface Controllable {
     void control(String command, String... parameters);
     String[] getControlOptions();
+
+    // Typed fast path for pre-resolved commands; the string form adapts onto these
+    void control(DeviceCommand command, int value);
+    void control(DeviceCommand command, String value);
+
+    // Same as control, but quiet and reporting whether the state actually changed
+    Transition apply(String command, String... parameters);
+    Transition apply(DeviceCommand command, int value);
+    Transition apply(DeviceCommand command, String value);
 }
@@ -0,0 +1,37 @@
+package com.smarthome.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Device commands resolved once from their string names so the control path can switch on an enum
+public enum DeviceCommand {
+    ON(Argument.NONE),
+    OFF(Argument.NONE),
+    BRIGHTNESS(Argument.NUMBER),
+    TEMP(Argument.NUMBER),
+    MODE(Argument.TEXT);
+
+    public enum Argument { NONE, NUMBER, TEXT }
+
+    private static final Map<String, DeviceCommand> BY_NAME = new HashMap<>();
+    static {
+        for (DeviceCommand command : values()) {
+            BY_NAME.put(command.name(), command);
+        }
+    }
+
+    private final Argument argument;
+
+    DeviceCommand(Argument argument) {
+        this.argument = argument;
+    }
+
+    public Argument getArgument() {
+        return argument;
+    }
+
+    // Returns null for names that are not device commands
+    public static DeviceCommand fromName(String name) {
+        return BY_NAME.get(name);
+    }
+}
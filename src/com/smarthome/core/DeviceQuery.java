@@ -0,0 +1,37 @@
+package com.smarthome.core;
+
+import com.smarthome.devices.Device;
+
+// Selects devices by type, location and power state; unset criteria match everything.
+// Example: new DeviceQuery().ofType("AirConditioner").inLocation("Office").whereOn(true)
+public class DeviceQuery {
+    private String type;
+    private String location;
+    private Boolean on;
+
+    public DeviceQuery ofType(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public DeviceQuery inLocation(String location) {
+        this.location = location;
+        return this;
+    }
+
+    public DeviceQuery whereOn(boolean on) {
+        this.on = on;
+        return this;
+    }
+
+    public boolean matches(Device device) {
+        return (type == null || type.equals(device.getDeviceType()))
+                && (location == null || location.equals(device.getLocation()))
+                && (on == null || on == device.isOn());
+    }
+
+    // Getters
+    public String getType() { return type; }
+    public String getLocation() { return location; }
+    public Boolean getOn() { return on; }
+}
@@ -0,0 +1,88 @@
+package com.smarthome.core;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.smarthome.devices.Device;
+
+// Growable device store with a hash index by id and secondary indexes by type and location.
+// Reads never lock; writers serialize on the registry so the indexes stay consistent.
+public class DeviceRegistry implements Iterable<Device> {
+    private static final Device[] NO_DEVICES = new Device[0];
+
+    private final Queue<Device> devices;
+    private final Map<String, Device> byId;
+    private final Map<String, Queue<Device>> byType;
+    private final Map<String, Queue<Device>> byLocation;
+    private final AtomicInteger size;
+
+    public DeviceRegistry() {
+        this(16);
+    }
+
+    // Sizes the id index up front, e.g. before installing a loaded snapshot
+    public DeviceRegistry(int expectedSize) {
+        this.devices = new ConcurrentLinkedQueue<>();
+        this.byId = new ConcurrentHashMap<>(expectedSize);
+        this.byType = new ConcurrentHashMap<>();
+        this.byLocation = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger();
+    }
+
+    // Returns false if a device with the same id is already registered
+    public synchronized boolean add(Device device) {
+        if (byId.putIfAbsent(device.getDeviceId(), device) != null) {
+            return false;
+        }
+        devices.add(device);
+        byType.computeIfAbsent(device.getDeviceType(), k -> new ConcurrentLinkedQueue<>()).add(device);
+        byLocation.computeIfAbsent(device.getLocation(), k -> new ConcurrentLinkedQueue<>()).add(device);
+        size.incrementAndGet();
+        return true;
+    }
+
+    public boolean contains(String deviceId) {
+        return byId.containsKey(deviceId);
+    }
+
+    public Device get(String deviceId) {
+        return byId.get(deviceId);
+    }
+
+    public Device[] getByType(String type) {
+        Queue<Device> matches = byType.get(type);
+        return matches == null ? NO_DEVICES : matches.toArray(NO_DEVICES);
+    }
+
+    public Device[] getByLocation(String location) {
+        Queue<Device> matches = byLocation.get(location);
+        return matches == null ? NO_DEVICES : matches.toArray(NO_DEVICES);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    // Point-in-time copy, so a count and its contents always agree
+    public Device[] toArray() {
+        return devices.toArray(NO_DEVICES);
+    }
+
+    // Iterates in registration order; weakly consistent with concurrent adds
+    @Override
+    public Iterator<Device> iterator() {
+        return devices.iterator();
+    }
+
+    public synchronized void clear() {
+        devices.clear();
+        byId.clear();
+        byType.clear();
+        byLocation.clear();
+        size.set(0);
+    }
+}
@@ -0,0 +1,48 @@
+package com.smarthome.core;
+
+import com.smarthome.devices.Device;
+
+// Per-device outcome of a bulk operation, kept as parallel arrays plus running totals
+public class SceneResult {
+    public enum Outcome {
+        CHANGED,  // the command was applied and the device reached the target state
+        SKIPPED,  // the device was already in the target state
+        REJECTED; // unsupported command, bad argument, or the device refused it
+
+        static Outcome of(Transition transition) {
+            switch (transition) {
+                case CHANGED: return CHANGED;
+                case NO_OP: return SKIPPED;
+                default: return REJECTED;
+            }
+        }
+    }
+
+    private final Device[] devices;
+    private final Outcome[] outcomes;
+    private final int[] counts;
+
+    SceneResult(Device[] devices, Outcome[] outcomes) {
+        this.devices = devices;
+        this.outcomes = outcomes;
+        this.counts = new int[Outcome.values().length];
+        for (Outcome outcome : outcomes) {
+            counts[outcome.ordinal()]++;
+        }
+    }
+
+    static SceneResult empty() {
+        return new SceneResult(new Device[0], new Outcome[0]);
+    }
+
+    public int size() { return devices.length; }
+    public Device getDevice(int index) { return devices[index]; }
+    public Outcome getOutcome(int index) { return outcomes[index]; }
+    public int getCount(Outcome outcome) { return counts[outcome.ordinal()]; }
+
+    @Override
+    public String toString() {
+        return devices.length + " matched: " + getCount(Outcome.CHANGED) + " changed, "
+                + getCount(Outcome.SKIPPED) + " skipped, " + getCount(Outcome.REJECTED) + " rejected";
+    }
+}
@@ -1,12 +1,43 @@
 	package com.smarthome.core;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import com.smarthome.automation.Automation;
+import com.smarthome.automation.RuleListener;
 import com.smarthome.devices.*;
+import com.smarthome.energy.EnergyReport;
+import com.smarthome.energy.EnergyStore;
+import com.smarthome.energy.MeteringEngine;
+import com.smarthome.events.DeviceEventBus;
+import com.smarthome.location.LocationNode;
+import com.smarthome.location.LocationTree;
 import com.smarthome.exception.*;
+import com.smarthome.logging.EventLog;
+import com.smarthome.logging.Level;
+import com.smarthome.metrics.MetricsRegistry;
+import com.smarthome.metrics.MetricsServer;
+import com.smarthome.persistence.StateJournal;
+import com.smarthome.persistence.SystemSnapshot;
+import com.smarthome.persistence.TextStateLoader;
+import com.smarthome.user.AuthResult;
+import com.smarthome.user.Permission;
+import com.smarthome.user.Session;
+import com.smarthome.user.SessionTable;
 import com.smarthome.user.User;
+import com.smarthome.user.UserStore;
 
 public class SmartHomeSystem {
     // Static nested class for system configuration
@@ -21,8 +52,10 @@ public class SmartHomeSystem {
             this.debugMode = false;
         }
         
+        // Debug mode also lowers the event log to DEBUG verbosity
         public void setDebugMode(boolean debugMode) {
             this.debugMode = debugMode;
+            EventLog.setLevel(debugMode ? Level.DEBUG : Level.INFO);
         }
         
         public boolean isDebugMode() {
@@ -32,16 +65,39 @@ public class SmartHomeSystem {
         public String getSystemInfo() {
             return systemName + " v" + configVersion;
         }
+        
+        public String getSystemName() {
+            return systemName;
+        }
     }
     
     // System components
     private SystemConfig config;
-    private Device[] devices;
-    private int deviceCount;
-    private User[] users;
-    private int userCount;
-    private User currentUser;
+    // Replaced wholesale when a load succeeds, so readers see the old or new set, never a mix
+    private volatile DeviceRegistry devices;
+    private UserStore users;
+    private SessionTable sessions;
+    // Session used by the single-user console API; concurrent clients hold their own
+    private volatile Session currentSession;
     private Automation automation;
+    private CommandPipeline commandPipeline;
+    private volatile EnergyStore energyStore;
+    private volatile LocationTree locations;
+    private MeteringEngine metering;
+    private MetricsRegistry metrics;
+    private DeviceTypeRegistry deviceTypes;
+    private DeviceEventBus events;
+    private MetricsServer metricsServer;
+    
+    // Write-ahead journal, enabled through enableJournal
+    private static final String CHECKPOINT_FILE = "checkpoint.snap";
+    private volatile StateJournal journal;
+    private String journalDirectory;
+    private ScheduledExecutorService checkpointer;
+    // Highest journal sequence queued by the running command while SYNC waits are deferred
+    private final ThreadLocal<long[]> pendingSync = new ThreadLocal<>();
+    private final DeviceListener deviceListener = this::deviceChanged;
+    private volatile DeviceListener changeListener;
     
     // Overloaded constructors
     public SmartHomeSystem() {
@@ -50,75 +106,99 @@ public class SmartHomeSystem {
     
     public SmartHomeSystem(String systemName) {
         this.config = new SystemConfig(systemName, "1.0");
-        this.devices = new Device[100]; // Fixed size array instead of ArrayList
-        this.deviceCount = 0;
-        this.users = new User[50]; // Fixed size array instead of ArrayList
-        this.userCount = 0;
+        this.devices = new DeviceRegistry();
+        this.energyStore = new EnergyStore();
+        this.locations = new LocationTree(systemName);
+        this.metering = new MeteringEngine(() -> energyStore, 60000, Runtime.getRuntime().availableProcessors());
+        this.metering.setListener(report -> locations.energyReported(report));
+        this.users = new UserStore();
+        this.sessions = new SessionTable();
         this.automation = new Automation();
+        this.commandPipeline = new CommandPipeline(Runtime.getRuntime().availableProcessors(), 10);
+        this.metrics = MetricsRegistry.getDefault();
+        this.deviceTypes = DeviceTypeRegistry.getDefault();
+        this.events = new DeviceEventBus();
+        this.automation.subscribeTo(events);
         
         // Add default admin user
         try {
             addUser(new User("admin", "admin123", "ADMIN"));
         } catch (SystemException e) {
-            System.out.println("Error initializing system: " + e.getMessage());
+            EventLog.error("System", null, "initialization failed:", e.getMessage());
         }
     }
     
     // User management
     public void addUser(User user) throws SystemException {
-        if (userCount >= users.length) {
-            throw new SystemException("Maximum number of users reached");
+        if (!users.add(user)) {
+            throw new SystemException("User already exists: " + user.getUsername());
         }
-        
-        for (int i = 0; i < userCount; i++) {
-            if (users[i].getUsername().equals(user.getUsername())) {
-                throw new SystemException("User already exists: " + user.getUsername());
-            }
-        }
-        
-        users[userCount++] = user;
-        System.out.println("User added: " + user.getUsername());
+        EventLog.info("User", user.getUsername(), "added");
     }
     
     public boolean login(String username, String password) {
-        for (int i = 0; i < userCount; i++) {
-            User user = users[i];
-            if (user.getUsername().equals(username)) {
-                try {
-                    if (user.authenticate(password)) {
-                        currentUser = user;
-                        System.out.println("Login successful: " + username);
-                        return true;
-                    }
-                } catch (AuthenticationException e) {
-                    System.out.println("Authentication failed: " + e.getMessage());
-                    return false;
-                }
-            }
+        Session session = openSession(username, password);
+        if (session == null) {
+            return false;
+        }
+        Session previous = currentSession;
+        currentSession = session;
+        if (previous != null) {
+            sessions.close(previous.getToken());
+        }
+        return true;
+    }
+    
+    // Opens an independent session; returns null if authentication fails
+    public Session openSession(String username, String password) {
+        AuthResult result = users.authenticate(username, password);
+        switch (result) {
+            case SUCCESS:
+                EventLog.info("User", username, "logged in");
+                return sessions.open(users.get(username));
+            case UNKNOWN_USER:
+                EventLog.warn("User", username, "not found");
+                return null;
+            default:
+                EventLog.warn("User", username, "authentication failed");
+                return null;
+        }
+    }
+    
+    // Looks up an open session by its token; null if unknown or closed
+    public Session getSession(String token) {
+        return sessions.validate(token);
+    }
+    
+    public void closeSession(Session session) {
+        if (sessions.close(session.getToken())) {
+            EventLog.info("User", session.getUser().getUsername(), "logged out");
         }
-        System.out.println("User not found: " + username);
-        return false;
     }
     
     public void logout() {
-        if (currentUser != null) {
-            System.out.println("Logged out: " + currentUser.getUsername());
-            currentUser = null;
+        Session session = currentSession;
+        if (session != null) {
+            closeSession(session);
+            currentSession = null;
         }
     }
     
     // Device management - Overloaded methods
     public void addDevice(Device device) throws SystemException {
-        if (currentUser == null || !currentUser.hasPermission("ADMIN_ADD_DEVICE")) {
+        addDevice(currentSession, device);
+    }
+    
+    public void addDevice(Session session, Device device) throws SystemException {
+        if (session == null || !session.hasPermission(Permission.ADMIN_ADD_DEVICE)) {
             throw new PermissionDeniedException("Only admins can add devices");
         }
         
-        if (deviceCount >= devices.length) {
-            throw new SystemException("Maximum number of devices reached");
+        if (!register(device)) {
+            throw new SystemException("Device already exists: " + device.getDeviceId());
         }
-        
-        devices[deviceCount++] = device;
-        System.out.println("Device added: " + device.getName());
+        journalDevice(device);
+        EventLog.info("Device", device.getName(), "added");
     }
     
     public void addDevice(Device device, String location) throws SystemException {
@@ -126,67 +206,222 @@ public class SmartHomeSystem {
         addDevice(device);
     }
     
-    private Device changeDeviceLocation(Device device, String location) {
+    private Device changeDeviceLocation(Device device, String location) throws SystemException {
         // This method simulates changing the device location
         // In a real system, you might need to create a new device or modify existing one
-        device.location = location;
+        device.setLocation(location);
         return device;
     }
     
+    // Why the session may not control devices, or null if it may
+    private static String controlDenied(Session session) {
+        if (session == null || !session.isActive()) {
+            return "You must be logged in to control devices";
+        }
+        return session.hasPermission(Permission.CONTROL_DEVICE) ? null : "You are not allowed to control devices";
+    }
+    
     // Vararg overloaded methods for controlling multiple devices
     public void controlDevices(String command, Device... devicesToControl) {
-        if (currentUser == null) {
-            System.out.println("You must be logged in to control devices");
+        controlDevices(currentSession, command, devicesToControl);
+    }
+    
+    public void controlDevices(String command, String parameter, Device... devicesToControl) {
+        controlDevices(currentSession, command, parameter, devicesToControl);
+    }
+    
+    public void controlDevices(Session session, String command, Device... devicesToControl) {
+        String denied = controlDenied(session);
+        if (denied != null) {
+            EventLog.warn("System", null, denied);
             return;
         }
         
-        for (Device device : devicesToControl) {
-            device.control(command);
+        long start = System.nanoTime();
+        long[] sync = deferJournalSync();
+        try {
+            for (Device device : devicesToControl) {
+                EventLog.debug("Command", device.getDeviceId(), command);
+                metrics.recordCommand(command, device.getDeviceType());
+                device.control(command);
+            }
+        } finally {
+            awaitJournalSync(sync);
         }
+        metrics.recordLatency("control_devices", System.nanoTime() - start);
     }
     
-    public void controlDevices(String command, String parameter, Device... devicesToControl) {
-        if (currentUser == null) {
-            System.out.println("You must be logged in to control devices");
+    public void controlDevices(Session session, String command, String parameter, Device... devicesToControl) {
+        String denied = controlDenied(session);
+        if (denied != null) {
+            EventLog.warn("System", null, denied);
             return;
         }
         
-        for (Device device : devicesToControl) {
-            device.control(command, parameter);
+        long start = System.nanoTime();
+        long[] sync = deferJournalSync();
+        try {
+            for (Device device : devicesToControl) {
+                EventLog.log(Level.DEBUG, "Command", device.getDeviceId(), command, parameter);
+                metrics.recordCommand(command, device.getDeviceType());
+                device.control(command, parameter);
+            }
+        } finally {
+            awaitJournalSync(sync);
         }
+        metrics.recordLatency("control_devices", System.nanoTime() - start);
     }
     
-    // Methods to get devices
-    public Device getDevice(String deviceId) {
-        for (int i = 0; i < deviceCount; i++) {
-            if (devices[i].getDeviceId().equals(deviceId)) {
-                return devices[i];
-            }
+    // Single device by id, reporting whether the state changed; used by remote callers
+    public Transition controlDevice(Session session, String deviceId, String command, String... parameters)
+            throws SystemException {
+        String denied = controlDenied(session);
+        if (denied != null) {
+            throw new PermissionDeniedException(denied);
+        }
+        Device device = devices.get(deviceId);
+        if (device == null) {
+            throw new DeviceOperationException("Unknown device: " + deviceId);
+        }
+        
+        long start = System.nanoTime();
+        EventLog.debug("Command", deviceId, command);
+        metrics.recordCommand(command, device.getDeviceType());
+        Transition result;
+        long[] sync = deferJournalSync();
+        try {
+            result = device.apply(command, parameters);
+        } finally {
+            awaitJournalSync(sync);
         }
-        return null;
+        metrics.recordTransition(result);
+        metrics.recordLatency("control_devices", System.nanoTime() - start);
+        return result;
     }
     
-    public Device[] getDevicesByType(String type) {
-        // Count matching devices first
-        int count = 0;
-        for (int i = 0; i < deviceCount; i++) {
-            if (devices[i].getDeviceType().equals(type)) {
-                count++;
+    // Asynchronous control: one future per device, merged per device within the batch window
+    public List<CompletableFuture<Transition>> controlDevicesAsync(String command, Device... devicesToControl) {
+        return controlDevicesAsync(currentSession, command, null, devicesToControl);
+    }
+    
+    public List<CompletableFuture<Transition>> controlDevicesAsync(String command, String parameter, Device... devicesToControl) {
+        return controlDevicesAsync(currentSession, command, parameter, devicesToControl);
+    }
+    
+    public List<CompletableFuture<Transition>> controlDevicesAsync(Session session, String command, String parameter, Device... devicesToControl) {
+        List<CompletableFuture<Transition>> futures = new ArrayList<>(devicesToControl.length);
+        String reason = controlDenied(session);
+        if (reason != null) {
+            PermissionDeniedException denied = new PermissionDeniedException(reason);
+            for (int i = 0; i < devicesToControl.length; i++) {
+                futures.add(CompletableFuture.failedFuture(denied));
             }
+            return futures;
         }
         
-        // Create array of exact size
-        Device[] result = new Device[count];
-        int index = 0;
-        for (int i = 0; i < deviceCount; i++) {
-            if (devices[i].getDeviceType().equals(type)) {
-                result[index++] = devices[i];
+        for (Device device : devicesToControl) {
+            metrics.recordCommand(command, device.getDeviceType());
+            if (parameter == null) {
+                futures.add(commandPipeline.submit(device, command));
+            } else {
+                futures.add(commandPipeline.submit(device, command, parameter));
             }
         }
+        return futures;
+    }
+    
+    // Bulk operation: applies one command to every device the query matches, in parallel.
+    // Devices already in the target state are skipped without taking their lock.
+    public SceneResult applyScene(DeviceQuery query, String command, String... parameters) {
+        return applyScene(currentSession, query, command, parameters);
+    }
+    
+    public SceneResult applyScene(Session session, DeviceQuery query, String command, String... parameters) {
+        String denied = controlDenied(session);
+        if (denied != null) {
+            EventLog.warn("System", null, denied);
+            return SceneResult.empty();
+        }
+        DeviceCommand resolved = DeviceCommand.fromName(command);
+        if (resolved == null) {
+            EventLog.warn("System", null, "unknown command", command);
+            return SceneResult.empty();
+        }
         
+        long start = System.nanoTime();
+        Device[] matched = findDevices(query);
+        String argument = parameters.length > 0 ? parameters[0] : null;
+        SceneResult.Outcome[] outcomes = new SceneResult.Outcome[matched.length];
+        IntStream.range(0, matched.length).parallel().forEach(i -> {
+            Device device = matched[i];
+            if (!device.supports(resolved)) {
+                outcomes[i] = SceneResult.Outcome.REJECTED;
+            } else if (device.hasState(resolved, argument)) {
+                outcomes[i] = SceneResult.Outcome.SKIPPED;
+            } else {
+                metrics.recordCommand(command, device.getDeviceType());
+                Transition applied = device.apply(command, parameters);
+                metrics.recordTransition(applied);
+                outcomes[i] = SceneResult.Outcome.of(applied);
+            }
+        });
+        
+        SceneResult result = new SceneResult(matched, outcomes);
+        metrics.recordLatency("apply_scene", System.nanoTime() - start);
+        EventLog.info("Scene", command, "applied:", result);
         return result;
     }
     
+    // Starts from the narrowest registry index the query allows
+    public Device[] findDevices(DeviceQuery query) {
+        Device[] candidates;
+        if (query.getType() != null) {
+            candidates = devices.getByType(query.getType());
+        } else if (query.getLocation() != null) {
+            candidates = devices.getByLocation(query.getLocation());
+        } else {
+            candidates = devices.toArray();
+        }
+        int count = 0;
+        for (Device candidate : candidates) {
+            if (query.matches(candidate)) {
+                candidates[count++] = candidate;
+            }
+        }
+        return count == candidates.length ? candidates : Arrays.copyOf(candidates, count);
+    }
+    
+    public CommandPipeline getCommandPipeline() {
+        return commandPipeline;
+    }
+    
+    // Methods to get devices
+    public Device getDevice(String deviceId) {
+        return devices.get(deviceId);
+    }
+    
+    public Device[] getDevicesByType(String type) {
+        return devices.getByType(type);
+    }
+    
+    public Device[] getDevicesByLocation(String location) {
+        return devices.getByLocation(location);
+    }
+    
+    // Stream of device state changes; subscribe with a buffer size and overflow policy
+    public DeviceEventBus getEvents() {
+        return events;
+    }
+    
+    // Type names to factories, used by every load path
+    public DeviceTypeRegistry getDeviceTypes() {
+        return deviceTypes;
+    }
+    
+    public SystemConfig getConfig() {
+        return config;
+    }
+    
     // Method to get automation system
     public Automation getAutomation() {
         return automation;
@@ -194,109 +429,388 @@ public class SmartHomeSystem {
     
     // File I/O methods for persistence
     public void saveSystemState(String filename) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            // Write system info
-            writer.println("SYSTEM:" + config.getSystemInfo());
-            
-            // Write devices
-            writer.println("DEVICES:" + deviceCount);
-            for (int i = 0; i < deviceCount; i++) {
-                Device device = devices[i];
-                writer.println(device.getDeviceType() + "," + 
-                              device.getDeviceId() + "," + 
-                              device.getName() + "," + 
-                              device.getLocation() + "," + 
-                              device.isOn());
-            }
-            
-            System.out.println("System state saved to " + filename);
+        long start = System.nanoTime();
+        try {
+            SystemSnapshot.write(filename, config.getSystemInfo(), devices.toArray());
+            EventLog.info("System", null, "state saved to", filename);
         } catch (IOException e) {
-            System.out.println("Error saving system state: " + e.getMessage());
+            metrics.recordError(e);
+            EventLog.error("System", null, "error saving state:", e.getMessage());
         }
+        metrics.recordLatency("save_state", System.nanoTime() - start);
     }
     
+    // Reads binary snapshots, and falls back to the older text format.
+    // The new devices are built off to the side; on any error the current state is kept.
     public void loadSystemState(String filename) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            
-            // Read system info
-            line = reader.readLine();
-            if (line != null && line.startsWith("SYSTEM:")) {
-                // Parse system info if needed
+        loadSystemState(filename, null);
+    }
+    
+    public void loadSystemState(String filename, TextStateLoader.ProgressListener progress) {
+        long start = System.nanoTime();
+        try {
+            List<Device> loaded;
+            if (SystemSnapshot.isSnapshot(filename)) {
+                loaded = SystemSnapshot.read(filename, deviceTypes::create);
+            } else {
+                loaded = TextStateLoader.read(filename, deviceTypes::create, progress);
             }
-            
-            // Read devices
-            line = reader.readLine();
-            if (line != null && line.startsWith("DEVICES:")) {
-                int count = Integer.parseInt(line.substring(8));
-                
-                // Clear existing devices
-                deviceCount = 0;
+            installDevices(loaded);
+            EventLog.info("System", null, "state loaded from", filename);
+            checkpointAfterLoad();
+        } catch (IOException e) {
+            metrics.recordError(e);
+            EventLog.error("System", null, "error loading state:", e.getMessage());
+        }
+        metrics.recordLatency("load_state", System.nanoTime() - start);
+    }
+    
+    // Recovers state from the directory's checkpoint and journal, then journals every
+    // later device and rule mutation and compacts the journal on the given interval
+    public synchronized void enableJournal(String directory, StateJournal.Durability durability,
+                                           long checkpointIntervalMillis) throws SystemException {
+        if (journal != null) {
+            throw new SystemException("Journal already enabled: " + journalDirectory);
+        }
+        try {
+            recover(directory);
+            journalDirectory = directory;
+            journal = new StateJournal(directory, durability, 50);
+            automation.setRuleListener(new RuleListener() {
+                @Override
+                public void ruleCreated(Automation.Rule rule) {
+                    journalRule(rule);
+                }
                 
-                // Read each device
-                for (int i = 0; i < count; i++) {
-                    line = reader.readLine();
-                    if (line != null) {
-                        String[] parts = line.split(",");
-                        if (parts.length >= 5) {
-                            String type = parts[0];
-                            String id = parts[1];
-                            String name = parts[2];
-                            String location = parts[3];
-                            boolean isOn = Boolean.parseBoolean(parts[4]);
-                            
-                            // Create device based on type
-                            Device device = null;
-                            switch (type) {
-                                case "Light":
-                                    device = new Light(id, name, location);
-                                    break;
-                                case "AirConditioner":
-                                    device = new AirConditioner(id, name, location);
-                                    break;
-                                // Add other device types as needed
-                            }
-                            
-                            if (device != null) {
-                                try {
-                                    // Set device state
-                                    if (isOn) {
-                                        device.turnOn();
-                                    }
-                                    
-                                    // Add device to system
-                                    devices[deviceCount++] = device;
-                                } catch (DeviceOperationException e) {
-                                    System.out.println("Error restoring device state: " + e.getMessage());
-                                }
-                            }
-                        }
+                @Override
+                public void ruleRemoved(Automation.Rule rule) {
+                    try {
+                        journal.appendRuleRemoved(rule.getRuleName());
+                    } catch (IOException e) {
+                        EventLog.error("Journal", null, "write failed:", e.getMessage());
                     }
                 }
+            });
+            checkpoint();
+        } catch (IOException e) {
+            throw new SystemException("Error opening journal: " + e.getMessage());
+        }
+        
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                EventLog.error("Journal", null, "checkpoint failed:", e.getMessage());
+            }
+        }, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+        EventLog.info("Journal", directory, "enabled with durability", durability);
+    }
+    
+    // Writes a full snapshot and drops the journal segments it covers.
+    // The journal is rotated first, so mutations racing with the snapshot land in the new
+    // segment and are replayed on top of it; device records are full-state and idempotent.
+    public synchronized void checkpoint() throws IOException {
+        StateJournal current = journal;
+        if (current == null) {
+            return;
+        }
+        long closedGeneration = current.rotate();
+        for (Automation.Rule rule : automation.getRules()) {
+            journalRule(rule);
+        }
+        
+        // The snapshot is written to a temp file and renamed into place
+        Path checkpointFile = Paths.get(journalDirectory, CHECKPOINT_FILE);
+        SystemSnapshot.write(checkpointFile.toString(), config.getSystemInfo(), devices.toArray());
+        current.deleteSegmentsThrough(closedGeneration);
+    }
+    
+    public synchronized void disableJournal() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        checkpointer.shutdown();
+        automation.setRuleListener(null);
+        journal.close();
+        journal = null;
+    }
+    
+    private void recover(String directory) throws IOException {
+        Path checkpointFile = Paths.get(directory, CHECKPOINT_FILE);
+        if (Files.exists(checkpointFile)) {
+            resetDevices();
+            for (Device device : SystemSnapshot.read(checkpointFile.toString(), deviceTypes::create)) {
+                register(device);
+            }
+        }
+        
+        StateJournal.replay(directory, new StateJournal.ReplayHandler() {
+            @Override
+            public void applyDevice(String type, String deviceId, String name, String location,
+                                    boolean isOn, double energy, int stateValue, String stateText) {
+                restoreDevice(type, deviceId, name, location, isOn, energy, stateValue, stateText);
             }
             
-            System.out.println("System state loaded from " + filename);
+            @Override
+            public void applyRule(String ruleName, String triggerDeviceId, String triggerCondition,
+                                  String action, String[] targetDeviceIds) {
+                if (automation.getRule(ruleName) != null) {
+                    return;
+                }
+                List<Device> targets = new ArrayList<>();
+                for (String targetId : targetDeviceIds) {
+                    Device target = devices.get(targetId);
+                    if (target != null) {
+                        targets.add(target);
+                    }
+                }
+                Device trigger = triggerDeviceId != null ? devices.get(triggerDeviceId) : null;
+                try {
+                    automation.createRule(ruleName, trigger, triggerCondition, action, targets.toArray(new Device[0]));
+                } catch (AutomationException e) {
+                    EventLog.warn("Rule", ruleName, "not restored:", e.getMessage());
+                }
+            }
+            
+            @Override
+            public void applyRuleRemoved(String ruleName) {
+                automation.removeRule(ruleName);
+            }
+        });
+        EventLog.info("Journal", directory, "recovered devices:", devices.size(), "rules:", automation.getRuleCount());
+    }
+    
+    // Creates the device if needed and overwrites its state, without permission checks,
+    // journaling or listeners; for journal replay and replicas. Null for unknown types.
+    public Device restoreDevice(String type, String deviceId, String name, String location,
+                                boolean isOn, double energy, int stateValue, String stateText) {
+        Device device = devices.get(deviceId);
+        if (device == null) {
+            device = deviceTypes.create(type, deviceId, name, location);
+            if (device == null) {
+                return null;
+            }
+            if (!register(device)) {
+                device = devices.get(deviceId);
+            }
+        }
+        device.restoreState(isOn, energy, stateValue, stateText);
+        locations.deviceChanged(device);
+        return device;
+    }
+    
+    // Receives every journaled device change, whether or not a journal is enabled
+    public void setChangeListener(DeviceListener listener) {
+        this.changeListener = listener;
+    }
+    
+    private boolean register(Device device) {
+        if (!devices.add(device)) {
+            return false;
+        }
+        device.setListener(deviceListener);
+        device.bindEnergyStore(energyStore);
+        locations.attach(device);
+        return true;
+    }
+    
+    // Registers the devices into a fresh registry and store, then publishes both at once.
+    // Later duplicates of an id are dropped, as add() does for live registrations.
+    private synchronized void installDevices(List<Device> loaded) {
+        DeviceRegistry registry = new DeviceRegistry(loaded.size());
+        EnergyStore store = new EnergyStore(Math.max(16, loaded.size()), 24);
+        LocationTree tree = new LocationTree(config.getSystemName(), loaded.size());
+        for (Device device : loaded) {
+            if (registry.add(device)) {
+                device.setListener(deviceListener);
+                device.bindEnergyStore(store);
+                tree.attach(device);
+            }
+        }
+        energyStore = store;
+        locations = tree;
+        devices = registry;
+    }
+    
+    // Devices dropped from the registry stay bound to the old store, so start a fresh one
+    private void resetDevices() {
+        devices.clear();
+        energyStore = new EnergyStore();
+        locations = new LocationTree(config.getSystemName());
+    }
+    
+    // Every registered device reports its state changes here
+    private void deviceChanged(Device device) {
+        journalDevice(device);
+        locations.deviceChanged(device);
+        events.deviceChanged(device);
+    }
+    
+    private void journalDevice(Device device) {
+        DeviceListener replica = changeListener;
+        if (replica != null) {
+            replica.deviceChanged(device);
+        }
+        StateJournal current = journal;
+        if (current != null) {
+            try {
+                long[] sync = pendingSync.get();
+                if (sync != null) {
+                    sync[0] = Math.max(sync[0], current.enqueueDevice(device));
+                } else {
+                    current.appendDevice(device);
+                }
+            } catch (IOException e) {
+                EventLog.error("Journal", null, "write failed:", e.getMessage());
+            }
+        }
+    }
+    
+    // Device changes are journaled under the device monitor. Under SYNC durability the
+    // command paths record the highest sequence they queued here and wait for the fsync
+    // after the monitor is released; other callers wait inside it.
+    private long[] deferJournalSync() {
+        StateJournal current = journal;
+        if (current == null || current.getDurability() != StateJournal.Durability.SYNC || pendingSync.get() != null) {
+            return null;
+        }
+        long[] sync = new long[1];
+        pendingSync.set(sync);
+        return sync;
+    }
+    
+    private void awaitJournalSync(long[] sync) {
+        if (sync == null) {
+            return;
+        }
+        pendingSync.remove();
+        StateJournal current = journal;
+        if (sync[0] > 0 && current != null) {
+            try {
+                current.awaitDurable(sync[0]);
+            } catch (IOException e) {
+                EventLog.error("Journal", null, "sync failed:", e.getMessage());
+            }
+        }
+    }
+    
+    private void journalRule(Automation.Rule rule) {
+        StateJournal current = journal;
+        if (current != null) {
+            try {
+                current.appendRule(rule.getRuleName(), rule.getTriggerDevice(), rule.getTriggerCondition(),
+                                   rule.getAction(), rule.getTargetDevices());
+            } catch (IOException e) {
+                EventLog.error("Journal", null, "write failed:", e.getMessage());
+            }
+        }
+    }
+    
+    // A bulk load replaces the registry, so fold it into a fresh checkpoint
+    private void checkpointAfterLoad() {
+        if (journal != null) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                EventLog.error("Journal", null, "checkpoint failed:", e.getMessage());
+            }
+        }
+    }
+    
+    // Stops the background work this system owns: metering and its fork-join pool, the
+    // command pipeline's workers, the journal and the metrics endpoint
+    public void shutdown() {
+        metering.shutdown();
+        commandPipeline.shutdown();
+        stopMetricsServer();
+        try {
+            disableJournal();
         } catch (IOException e) {
-            System.out.println("Error loading system state: " + e.getMessage());
+            EventLog.error("Journal", null, "close failed:", e.getMessage());
+        }
+        events.close();
+    }
+    
+    // Energy metering over the columnar store; one tick covers the engine's tick period
+    public EnergyReport tickEnergy() {
+        return metering.tick();
+    }
+    
+    public MeteringEngine getMetering() {
+        return metering;
+    }
+    
+    public EnergyStore getEnergyStore() {
+        return energyStore;
+    }
+    
+    // Site/building/floor/room tree with per-subtree running aggregates
+    public LocationTree getLocations() {
+        return locations;
+    }
+    
+    // Aggregates for a location path such as "Main/1"; null if nothing was placed there
+    public LocationNode getLocation(String path) {
+        return locations.find(path);
+    }
+    
+    // Counters and latency histograms; snapshots never block the recording paths
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+    
+    // Exposes the metrics in Prometheus text format at http://127.0.0.1:<port>/metrics
+    public synchronized void startMetricsServer(int port) throws IOException {
+        if (metricsServer == null) {
+            metricsServer = new MetricsServer(metrics, port);
+            metricsServer.start();
+        }
+    }
+    
+    public synchronized void stopMetricsServer() {
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
         }
     }
     
     // Method to display system status
     public void displaySystemStatus() {
         System.out.println("\n===== " + config.getSystemInfo() + " =====");
+        Session session = currentSession;
+        User currentUser = session != null ? session.getUser() : null;
         System.out.println("Logged in user: " + (currentUser != null ? currentUser.getUsername() + " (" + currentUser.getRole() + ")" : "None"));
-        System.out.println("Total devices: " + deviceCount);
+        System.out.println("Total devices: " + devices.size());
         
         // Display devices
         System.out.println("\nDevices:");
-        for (int i = 0; i < deviceCount; i++) {
-            Device device = devices[i];
-            System.out.println((i+1) + ". " + device.getName() + " (" + device.getDeviceType() + 
+        int i = 0;
+        for (Device device : devices) {
+            System.out.println((++i) + ". " + device.getName() + " (" + device.getDeviceType() + 
                               ") - Location: " + device.getLocation() + 
                               ", Status: " + (device.isOn() ? "ON" : "OFF") + 
                               ", Energy: " + device.getEnergyConsumption() + " kWh");
         }
         
+        EnergyStore store = energyStore;
+        System.out.println("\nTotal energy: " + String.format("%.2f", store.getTotal()) + " kWh");
+        for (Map.Entry<String, Double> entry : store.getTotalsByLocation().entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + String.format("%.2f", entry.getValue()) + " kWh");
+        }
+        Device[] top = store.getTopConsumers(3);
+        if (top.length > 0) {
+            System.out.print("Top consumers:");
+            for (Device device : top) {
+                System.out.print(" " + device.getName() + " (" + String.format("%.2f", device.getEnergyConsumption()) + ")");
+            }
+            System.out.println();
+        }
+        
         System.out.println("\n==============================\n");
     }
 }
@@ -0,0 +1,8 @@
+package com.smarthome.core;
+
+// Result of applying a command to a device; redundant commands are a NO_OP, not an error
+public enum Transition {
+    CHANGED,  // the device moved to a new state
+    NO_OP,    // the device was already in the requested state
+    REJECTED  // unknown or unsupported command, or an invalid argument
+}
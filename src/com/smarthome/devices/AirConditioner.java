@@ -1,12 +1,14 @@
 package com.smarthome.devices;
 
 import com.smarthome.automation.Schedulable;
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
 import com.smarthome.exception.AuthenticationException;
-import com.smarthome.exception.DeviceOperationException;
+import com.smarthome.logging.EventLog;
 
 public class AirConditioner extends Device implements Schedulable {
-    private Integer temperature;
-    private String mode;
+    private volatile Integer temperature;
+    private volatile String mode;
     
     public AirConditioner(String deviceId, String name) {
         super(deviceId, name);
@@ -26,54 +28,44 @@ public class AirConditioner extends Device implements Schedulable {
     }
     
     @Override
-    public void control(String command, String... parameters) {
-     try {
-    if (command.equals("ON")) {
-        turnOn();
-    } else if (command.equals("OFF")) {
-        turnOff();
-    } else if (command.equals("TEMP")) {
-        if (parameters.length > 0) {
-            setTemperature(Integer.parseInt(parameters[0]));
+    public synchronized Transition apply(DeviceCommand command, int value) {
+        if (command != DeviceCommand.TEMP) {
+            return super.apply(command, value);
         }
-    } else if (command.equals("MODE")) {
-        if (parameters.length > 0) {
-            setMode(parameters[0]);
+        if (value == temperature) {
+            return Transition.NO_OP;
         }
-    }else System.out.println("Unknown command: " + command);
-
-}
-            
-        catch (DeviceOperationException e) {
-            System.out.println("Error: " + e.getMessage());
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid parameter format");
-        }
-    }
-    
-    @Override
-    public String[] getControlOptions() {
-        return new String[]{"ON", "OFF", "TEMP", "MODE"};
+        setTemperature(value);
+        return Transition.CHANGED;
     }
     
     @Override
-    public void scheduleTask(String time, String action) {
-        System.out.println("Scheduled " + action + " for " + name + " at " + time);
+    public synchronized Transition apply(DeviceCommand command, String value) {
+        if (command != DeviceCommand.MODE) {
+            return super.apply(command, value);
+        }
+        if (value.equals(mode)) {
+            return Transition.NO_OP;
+        }
+        setMode(value);
+        return Transition.CHANGED;
     }
     
     @Override
-    public void cancelSchedule(String scheduleId) {
-        System.out.println("Cancelled schedule " + scheduleId + " for " + name);
+    public String[] getControlOptions() {
+        return new String[]{"ON", "OFF", "TEMP", "MODE"};
     }
     
-    public void setTemperature(int temperature) {
+    public synchronized void setTemperature(int temperature) {
         this.temperature = temperature;
-        System.out.println(name + " temperature set to " + temperature);
+        EventLog.info("Device", name, "temperature set to", temperature);
+        stateChanged();
     }
     
-    public void setMode(String mode) {
+    public synchronized void setMode(String mode) {
         this.mode = mode;
-        System.out.println(name + " mode set to " + mode);
+        EventLog.info("Device", name, "mode set to", mode);
+        stateChanged();
     }
     
     public Integer getTemperature() {
@@ -83,5 +75,39 @@ public class AirConditioner extends Device implements Schedulable {
     public String getMode() {
         return mode;
     }
+    
+    // Compressor load grows with the gap to a typical ambient temperature
+    @Override
+    public double getPowerDraw() {
+        switch (mode) {
+            case "COOL":
+                return Math.max(0.3, 1.5 + 0.1 * (24 - temperature));
+            case "HEAT":
+                return Math.max(0.3, 1.5 + 0.1 * (temperature - 20));
+            case "FAN":
+                return 0.1;
+            default:
+                return 1.5;
+        }
+    }
+    
+    @Override
+    public int getStateValue() {
+        return temperature;
+    }
+    
+    @Override
+    public String getStateText() {
+        return mode;
+    }
+    
+    @Override
+    public synchronized void restoreState(boolean isOn, double energyConsumption, int stateValue, String stateText) {
+        this.temperature = stateValue;
+        if (stateText != null) {
+            this.mode = stateText;
+        }
+        super.restoreState(isOn, energyConsumption, stateValue, stateText);
+    }
 }
 
@@ -2,17 +2,37 @@
 //import java.io.*;
 package com.smarthome.devices;
 
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.smarthome.automation.TaskScheduler;
 import com.smarthome.core.Controllable;
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
+import com.smarthome.energy.EnergyStore;
 //import com.smarthome.exceptions.DeviceOperationException;
+import com.smarthome.exception.AutomationException;
 import com.smarthome.exception.DeviceOperationException;
+import com.smarthome.logging.EventLog;
+import com.smarthome.metrics.MetricsRegistry;
 
 public abstract class Device implements Controllable {
-    // Properties with wrapper classes
-    public String deviceId;
-    public String name;
-    public String location;
-    public Boolean isOn;
-    public Double energyConsumption;
+    // Dispatch table per device type, built once from getControlOptions()
+    private static final Map<Class<?>, Set<DeviceCommand>> SUPPORTED_COMMANDS = new ConcurrentHashMap<>();
+    private static final long HOUR_MILLIS = 3_600_000L;
+    
+    // State is written under the device's own monitor and read without locking
+    protected final String deviceId;
+    protected final String name;
+    protected volatile String location;
+    private volatile boolean isOn;
+    private volatile DeviceListener listener;
+    // Energy lives in the bound store's columns; the local field is used until then
+    private double energyConsumption;
+    private volatile EnergyStore energyStore;
+    private int energySlot;
     
     // Overloaded constructors
     public Device(String deviceId, String name) {
@@ -30,34 +50,230 @@ public abstract class Device implements Controllable {
     // Abstract methods
     public abstract String getDeviceType();
     
+    // Commands go through apply(), which reports the outcome instead of throwing;
+    // control() is the same call with the outcome logged
+    @Override
+    public void control(String command, String... parameters) {
+        report(command, apply(command, parameters));
+    }
+    
+    @Override
+    public void control(DeviceCommand command, int value) {
+        report(command, apply(command, value));
+    }
+    
+    @Override
+    public void control(DeviceCommand command, String value) {
+        report(command, apply(command, value));
+    }
+    
+    // String commands are a thin adapter over the typed apply methods
+    @Override
+    public Transition apply(String command, String... parameters) {
+        DeviceCommand resolved = DeviceCommand.fromName(command);
+        if (resolved == null || !supports(resolved)) {
+            return Transition.REJECTED;
+        }
+        
+        switch (resolved.getArgument()) {
+            case NONE:
+                return apply(resolved, 0);
+            case NUMBER:
+                if (parameters.length == 0) {
+                    return Transition.REJECTED;
+                }
+                try {
+                    return apply(resolved, Integer.parseInt(parameters[0]));
+                } catch (NumberFormatException e) {
+                    MetricsRegistry.getDefault().recordError(e);
+                    return Transition.REJECTED;
+                }
+            default:
+                return parameters.length > 0 ? apply(resolved, parameters[0]) : Transition.REJECTED;
+        }
+    }
+    
+    // Subclasses handle their own commands and defer to these for the rest
+    @Override
+    public Transition apply(DeviceCommand command, int value) {
+        switch (command) {
+            case ON:
+                return switchPower(true);
+            case OFF:
+                return switchPower(false);
+            default:
+                return Transition.REJECTED;
+        }
+    }
+    
+    @Override
+    public Transition apply(DeviceCommand command, String value) {
+        return Transition.REJECTED;
+    }
+    
+    private void report(Object command, Transition result) {
+        MetricsRegistry.getDefault().recordTransition(result);
+        if (result == Transition.REJECTED) {
+            EventLog.warn("Device", name, "rejected command", command);
+        } else if (result == Transition.NO_OP) {
+            EventLog.debug("Device", name, "already in requested state:", command);
+        }
+    }
+    
+    public boolean supports(DeviceCommand command) {
+        return SUPPORTED_COMMANDS.computeIfAbsent(getClass(), k -> buildCommandTable()).contains(command);
+    }
+    
+    private Set<DeviceCommand> buildCommandTable() {
+        Set<DeviceCommand> commands = EnumSet.noneOf(DeviceCommand.class);
+        for (String option : getControlOptions()) {
+            DeviceCommand command = DeviceCommand.fromName(option);
+            if (command != null) {
+                commands.add(command);
+            }
+        }
+        return commands;
+    }
+    
     // Common methods
+    public synchronized Transition switchPower(boolean on) {
+        if (isOn == on) {
+            return Transition.NO_OP;
+        }
+        isOn = on;
+        if (energyStore != null) {
+            energyStore.setOn(energySlot, on);
+        }
+        EventLog.info("Device", name, on ? "turned ON" : "turned OFF");
+        stateChanged();
+        return Transition.CHANGED;
+    }
+    
     public void turnOn() throws DeviceOperationException {
-        if (isOn) {
+        if (switchPower(true) == Transition.NO_OP) {
             throw new DeviceOperationException("Device is already ON");
         }
-        isOn = true;
-        System.out.println(name + " turned ON");
     }
     
     public void turnOff() throws DeviceOperationException {
-        if (isOn==false) {
+        if (switchPower(false) == Transition.NO_OP) {
             throw new DeviceOperationException("Device is already OFF");
         }
-        isOn = false;
-        System.out.println(name + " turned OFF");
+    }
+    
+    // Shared by the Schedulable device types; runs the action through control() when due
+    public String scheduleTask(String time, String action) throws AutomationException {
+        String scheduleId = TaskScheduler.getDefault().schedule(time, () -> control(action));
+        EventLog.info("Schedule", scheduleId, action, name, "at", time);
+        return scheduleId;
+    }
+    
+    public void cancelSchedule(String scheduleId) {
+        if (TaskScheduler.getDefault().cancel(scheduleId)) {
+            EventLog.info("Schedule", scheduleId, "cancelled for", name);
+        } else {
+            EventLog.warn("Schedule", scheduleId, "not pending for", name);
+        }
     }
     
     // Getters and setters
     public String getDeviceId() { return deviceId; }
     public String getName() { return name; }
     public String getLocation() { return location; }
-    public Boolean isOn() { return isOn; }
-    public Double getEnergyConsumption() { return energyConsumption; }
+    public void setListener(DeviceListener listener) { this.listener = listener; }
+    
+    // Subclasses call this after every state mutation
+    protected void stateChanged() {
+        EnergyStore store = energyStore;
+        if (store != null) {
+            store.setPower(energySlot, getPowerDraw());
+        }
+        DeviceListener current = listener;
+        if (current != null) {
+            current.deviceChanged(this);
+        }
+    }
+    public boolean isOn() { return isOn; }
+    
+    public double getEnergyConsumption() {
+        EnergyStore store = energyStore;
+        return store != null ? store.getEnergy(energySlot) : energyConsumption;
+    }
+    
+    // The registry, energy store and location tree index the location at registration,
+    // so it can only change before the device is added to a system
+    public synchronized void setLocation(String location) throws DeviceOperationException {
+        if (energyStore != null) {
+            throw new DeviceOperationException("Cannot move a registered device: " + deviceId);
+        }
+        this.location = location;
+    }
     
-    // Method to update energy consumption
+    // Moves this device's energy accounting into the store's columns
+    public synchronized void bindEnergyStore(EnergyStore store) {
+        double current = getEnergyConsumption();
+        energySlot = store.register(this, isOn, current);
+        store.setPower(energySlot, getPowerDraw());
+        energyStore = store;
+    }
+    
+    // Power drawn while ON, in kW; subclasses model it from their own state
+    public double getPowerDraw() {
+        return 0.1;
+    }
+    
+    public EnergyStore getEnergyStore() { return energyStore; }
+    public int getEnergySlot() { return energySlot; }
+    
+    // True if applying the command with this argument would leave the device unchanged
+    public boolean hasState(DeviceCommand command, String argument) {
+        switch (command) {
+            case ON:
+                return isOn;
+            case OFF:
+                return !isOn;
+            default:
+                if (argument == null || !supports(command)) {
+                    return false;
+                }
+                if (command.getArgument() == DeviceCommand.Argument.TEXT) {
+                    return argument.equals(getStateText());
+                }
+                try {
+                    return Integer.parseInt(argument) == getStateValue();
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+        }
+    }
+    
+    // Persistence hooks: each type keeps its extra state in one numeric and one text slot
+    public int getStateValue() { return 0; }
+    public String getStateText() { return null; }
+    
+    // Restores saved state directly, without the checks and output of turnOn/turnOff
+    public synchronized void restoreState(boolean isOn, double energyConsumption, int stateValue, String stateText) {
+        this.isOn = isOn;
+        this.energyConsumption = energyConsumption;
+        if (energyStore != null) {
+            energyStore.setOn(energySlot, isOn);
+            energyStore.setEnergy(energySlot, energyConsumption);
+            energyStore.setPower(energySlot, getPowerDraw());
+        }
+    }
+    
+    // Method to update energy consumption by one hour of use at the current draw
     public void updateEnergyConsumption() {
-        if (isOn) {
-            energyConsumption += 0.1; // Simplified calculation
+        updateEnergyConsumption(HOUR_MILLIS);
+    }
+    
+    // Same power-times-hours formula as the metering engine's bulk tick
+    public synchronized void updateEnergyConsumption(long elapsedMillis) {
+        double hours = EnergyStore.hours(elapsedMillis);
+        if (energyStore != null) {
+            energyStore.tick(energySlot, hours);
+        } else if (isOn) {
+            energyConsumption += getPowerDraw() * hours;
         }
     }
 }
@@ -0,0 +1,6 @@
+package com.smarthome.devices;
+
+// Notified after a device's state has changed, while the device's monitor is still held
+public interface DeviceListener {
+    void deviceChanged(Device device);
+}
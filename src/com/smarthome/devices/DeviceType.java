@@ -0,0 +1,29 @@
+package com.smarthome.devices;
+
+// A device type the system can build by name. Each type's state serializer is the
+// getStateValue/getStateText/restoreState trio on the devices it creates.
+// Plugins implement this interface and list the class in
+// META-INF/services/com.smarthome.devices.DeviceType to be picked up by ServiceLoader.
+public interface DeviceType {
+    String getName();
+    Device create(String deviceId, String name, String location);
+
+    interface Factory {
+        Device create(String deviceId, String name, String location);
+    }
+
+    // Wraps a constructor reference, e.g. DeviceType.of("Light", Light::new)
+    static DeviceType of(String name, Factory factory) {
+        return new DeviceType() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Device create(String deviceId, String deviceName, String location) {
+                return factory.create(deviceId, deviceName, location);
+            }
+        };
+    }
+}
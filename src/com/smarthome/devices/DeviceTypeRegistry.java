@@ -0,0 +1,82 @@
+package com.smarthome.devices;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.smarthome.logging.EventLog;
+
+// Maps type names to their factories so loaders can build any registered type with one
+// hash lookup. Built-in types are registered up front; more arrive through ServiceLoader.
+public class DeviceTypeRegistry {
+    private static DeviceTypeRegistry defaultRegistry;
+
+    private final Map<String, DeviceType> types;
+
+    public DeviceTypeRegistry() {
+        this.types = new ConcurrentHashMap<>();
+        register(DeviceType.of("Light", Light::new));
+        register(DeviceType.of("AirConditioner", AirConditioner::new));
+        register(DeviceType.of("Thermostat", Thermostat::new));
+        register(DeviceType.of("MotionSensor", MotionSensor::new));
+        register(DeviceType.of("SmartPlug", SmartPlug::new));
+    }
+
+    // Shared registry with the built-in types and any plugins on the classpath
+    public static synchronized DeviceTypeRegistry getDefault() {
+        if (defaultRegistry == null) {
+            defaultRegistry = new DeviceTypeRegistry();
+            defaultRegistry.loadPlugins(DeviceTypeRegistry.class.getClassLoader());
+        }
+        return defaultRegistry;
+    }
+
+    public static synchronized void setDefault(DeviceTypeRegistry registry) {
+        defaultRegistry = registry;
+    }
+
+    // A later registration under the same name replaces the earlier one
+    public void register(DeviceType type) {
+        types.put(type.getName(), type);
+    }
+
+    // A provider that fails to load is skipped; the ones listed after it still register
+    public int loadPlugins(ClassLoader loader) {
+        int loaded = 0;
+        Iterator<DeviceType> providers = ServiceLoader.load(DeviceType.class, loader).iterator();
+        while (true) {
+            DeviceType type;
+            try {
+                if (!providers.hasNext()) {
+                    break;
+                }
+                type = providers.next();
+            } catch (ServiceConfigurationError e) {
+                EventLog.warn("DeviceType", null, "plugin failed to load:", e.getMessage());
+                continue;
+            }
+            register(type);
+            EventLog.info("DeviceType", type.getName(), "registered from plugin");
+            loaded++;
+        }
+        return loaded;
+    }
+
+    // Returns null for unknown types, matching SystemSnapshot.DeviceFactory
+    public Device create(String type, String deviceId, String name, String location) {
+        DeviceType deviceType = types.get(type);
+        return deviceType != null ? deviceType.create(deviceId, name, location) : null;
+    }
+
+    public boolean isRegistered(String type) {
+        return types.containsKey(type);
+    }
+
+    public Set<String> getTypeNames() {
+        return new TreeSet<>(types.keySet());
+    }
+}
@@ -1,12 +1,14 @@
 package com.smarthome.devices;
 
 import com.smarthome.automation.Schedulable;
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
 import com.smarthome.exception.AuthenticationException;
-import com.smarthome.exception.DeviceOperationException;
+import com.smarthome.logging.EventLog;
 
 // Light device implementation
 public class Light extends Device implements Schedulable {
-    private Integer brightness;
+    private volatile Integer brightness;
     
     // Overloaded constructors
     public Light(String deviceId, String name) {
@@ -26,28 +28,18 @@ public class Light extends Device implements Schedulable {
     
     // Implementing Controllable interface
     @Override
-    public void control(String command, String... parameters) {
-        try {
-            switch (command) {
-                case "ON":
-                    turnOn();
-                    break;
-                case "OFF":
-                    turnOff();
-                    break;
-                case "BRIGHTNESS":
-                    if (parameters.length > 0) {
-                        setBrightness(Integer.parseInt(parameters[0]));
-                    }
-                    break;
-                default:
-                    System.out.println("Unknown command: " + command);
-            }
-        } catch (DeviceOperationException e) {
-            System.out.println("Error: " + e.getMessage());
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid parameter format");
+    public synchronized Transition apply(DeviceCommand command, int value) {
+        if (command != DeviceCommand.BRIGHTNESS) {
+            return super.apply(command, value);
         }
+        if (value < 0 || value > 100) {
+            return Transition.REJECTED;
+        }
+        if (value == brightness) {
+            return Transition.NO_OP;
+        }
+        setBrightness(value);
+        return Transition.CHANGED;
     }
     
     @Override
@@ -55,26 +47,33 @@ public class Light extends Device implements Schedulable {
         return new String[]{"ON", "OFF", "BRIGHTNESS"};
     }
     
-    // Implementing Schedulable interface
-    @Override
-    public void scheduleTask(String time, String action) {
-        System.out.println("Scheduled " + action + " for " + name + " at " + time);
+    // Light-specific methods
+    public synchronized void setBrightness(int brightness) {
+        this.brightness = brightness;
+        EventLog.info("Device", name, "brightness set to", brightness);
+        stateChanged();
     }
     
-    @Override
-    public void cancelSchedule(String scheduleId) {
-        System.out.println("Cancelled schedule " + scheduleId + " for " + name);
+    public Integer getBrightness() {
+        return brightness;
     }
     
-    // Light-specific methods
-    public void setBrightness(int brightness) {
-        this.brightness = brightness;
-        System.out.println(name + " brightness set to " + brightness);
+    // 60 W at full brightness, scaling with the dimmer
+    @Override
+    public double getPowerDraw() {
+        return 0.06 * brightness / 100.0;
     }
     
-    public Integer getBrightness() {
+    @Override
+    public int getStateValue() {
         return brightness;
     }
+    
+    @Override
+    public synchronized void restoreState(boolean isOn, double energyConsumption, int stateValue, String stateText) {
+        this.brightness = stateValue;
+        super.restoreState(isOn, energyConsumption, stateValue, stateText);
+    }
 }
 
 
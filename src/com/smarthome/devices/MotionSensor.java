@@ -0,0 +1,65 @@
+package com.smarthome.devices;
+
+import com.smarthome.core.Transition;
+import com.smarthome.logging.EventLog;
+
+// Motion detector; ON arms it, and motion is only counted while armed
+public class MotionSensor extends Device {
+    private volatile int motionCount;
+    private volatile long lastMotionMillis;
+    
+    public MotionSensor(String deviceId, String name) {
+        this(deviceId, name, "Unknown");
+    }
+    
+    public MotionSensor(String deviceId, String name, String location) {
+        super(deviceId, name, location);
+    }
+    
+    @Override
+    public String getDeviceType() {
+        return "MotionSensor";
+    }
+    
+    @Override
+    public String[] getControlOptions() {
+        return new String[]{"ON", "OFF"};
+    }
+    
+    // Called by the sensor driver; pair with Automation.triggerEvent(sensor, "motion") for rules
+    public synchronized Transition recordMotion() {
+        if (!isOn()) {
+            return Transition.NO_OP;
+        }
+        motionCount++;
+        lastMotionMillis = System.currentTimeMillis();
+        EventLog.info("Device", name, "motion detected");
+        stateChanged();
+        return Transition.CHANGED;
+    }
+    
+    public int getMotionCount() {
+        return motionCount;
+    }
+    
+    public long getLastMotionMillis() {
+        return lastMotionMillis;
+    }
+    
+    // Battery-class sensor; about 2 W including the radio
+    @Override
+    public double getPowerDraw() {
+        return 0.002;
+    }
+    
+    @Override
+    public int getStateValue() {
+        return motionCount;
+    }
+    
+    @Override
+    public synchronized void restoreState(boolean isOn, double energyConsumption, int stateValue, String stateText) {
+        this.motionCount = stateValue;
+        super.restoreState(isOn, energyConsumption, stateValue, stateText);
+    }
+}
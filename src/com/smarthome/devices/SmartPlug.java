@@ -0,0 +1,61 @@
+package com.smarthome.devices;
+
+import com.smarthome.core.Transition;
+import com.smarthome.logging.EventLog;
+
+// Switchable outlet with a power meter; energy is billed at the measured load
+public class SmartPlug extends Device {
+    private volatile int loadWatts;
+    
+    public SmartPlug(String deviceId, String name) {
+        this(deviceId, name, "Unknown");
+    }
+    
+    public SmartPlug(String deviceId, String name, String location) {
+        super(deviceId, name, location);
+    }
+    
+    @Override
+    public String getDeviceType() {
+        return "SmartPlug";
+    }
+    
+    @Override
+    public String[] getControlOptions() {
+        return new String[]{"ON", "OFF"};
+    }
+    
+    // Called with each meter reading of the appliance's draw
+    public synchronized Transition reportLoad(int watts) {
+        if (watts < 0) {
+            return Transition.REJECTED;
+        }
+        if (watts == loadWatts) {
+            return Transition.NO_OP;
+        }
+        loadWatts = watts;
+        EventLog.debug("Device", name, "load (W)", watts);
+        stateChanged();
+        return Transition.CHANGED;
+    }
+    
+    public int getLoadWatts() {
+        return loadWatts;
+    }
+    
+    @Override
+    public double getPowerDraw() {
+        return loadWatts / 1000.0;
+    }
+    
+    @Override
+    public int getStateValue() {
+        return loadWatts;
+    }
+    
+    @Override
+    public synchronized void restoreState(boolean isOn, double energyConsumption, int stateValue, String stateText) {
+        this.loadWatts = stateValue;
+        super.restoreState(isOn, energyConsumption, stateValue, stateText);
+    }
+}
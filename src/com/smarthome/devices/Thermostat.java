@@ -0,0 +1,110 @@
+package com.smarthome.devices;
+
+import com.smarthome.automation.Schedulable;
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
+import com.smarthome.logging.EventLog;
+
+// Wall thermostat holding a setpoint; the heating or cooling it drives is metered elsewhere
+public class Thermostat extends Device implements Schedulable {
+    private static final int MIN_SETPOINT = 5;
+    private static final int MAX_SETPOINT = 35;
+
+    private volatile Integer setpoint;
+    private volatile String mode;
+    
+    public Thermostat(String deviceId, String name) {
+        this(deviceId, name, "Unknown");
+    }
+    
+    public Thermostat(String deviceId, String name, String location) {
+        super(deviceId, name, location);
+        this.setpoint = 21;
+        this.mode = "AUTO";
+    }
+    
+    @Override
+    public String getDeviceType() {
+        return "Thermostat";
+    }
+    
+    @Override
+    public synchronized Transition apply(DeviceCommand command, int value) {
+        if (command != DeviceCommand.TEMP) {
+            return super.apply(command, value);
+        }
+        if (value < MIN_SETPOINT || value > MAX_SETPOINT) {
+            return Transition.REJECTED;
+        }
+        if (value == setpoint) {
+            return Transition.NO_OP;
+        }
+        setSetpoint(value);
+        return Transition.CHANGED;
+    }
+    
+    @Override
+    public synchronized Transition apply(DeviceCommand command, String value) {
+        if (command != DeviceCommand.MODE) {
+            return super.apply(command, value);
+        }
+        if (!value.equals("HEAT") && !value.equals("COOL") && !value.equals("AUTO")) {
+            return Transition.REJECTED;
+        }
+        if (value.equals(mode)) {
+            return Transition.NO_OP;
+        }
+        setMode(value);
+        return Transition.CHANGED;
+    }
+    
+    @Override
+    public String[] getControlOptions() {
+        return new String[]{"ON", "OFF", "TEMP", "MODE"};
+    }
+    
+    public synchronized void setSetpoint(int setpoint) {
+        this.setpoint = setpoint;
+        EventLog.info("Device", name, "setpoint set to", setpoint);
+        stateChanged();
+    }
+    
+    public synchronized void setMode(String mode) {
+        this.mode = mode;
+        EventLog.info("Device", name, "mode set to", mode);
+        stateChanged();
+    }
+    
+    public Integer getSetpoint() {
+        return setpoint;
+    }
+    
+    public String getMode() {
+        return mode;
+    }
+    
+    // The controller itself; about 5 W
+    @Override
+    public double getPowerDraw() {
+        return 0.005;
+    }
+    
+    @Override
+    public int getStateValue() {
+        return setpoint;
+    }
+    
+    @Override
+    public String getStateText() {
+        return mode;
+    }
+    
+    @Override
+    public synchronized void restoreState(boolean isOn, double energyConsumption, int stateValue, String stateText) {
+        this.setpoint = stateValue;
+        if (stateText != null) {
+            this.mode = stateText;
+        }
+        super.restoreState(isOn, energyConsumption, stateValue, stateText);
+    }
+}
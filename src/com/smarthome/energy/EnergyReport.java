@@ -0,0 +1,32 @@
+package com.smarthome.energy;
+
+import java.util.Collections;
+import java.util.Map;
+
+// Fleet-wide energy totals rolled up by one metering tick
+public class EnergyReport {
+    private final long tick;
+    private final int deviceCount;
+    private final double total;
+    private final Map<String, Double> totalsByType;
+    private final Map<String, Double> totalsByLocation;
+    private final long durationNanos;
+
+    public EnergyReport(long tick, int deviceCount, double total, Map<String, Double> totalsByType,
+                        Map<String, Double> totalsByLocation, long durationNanos) {
+        this.tick = tick;
+        this.deviceCount = deviceCount;
+        this.total = total;
+        this.totalsByType = Collections.unmodifiableMap(totalsByType);
+        this.totalsByLocation = Collections.unmodifiableMap(totalsByLocation);
+        this.durationNanos = durationNanos;
+    }
+
+    // Getters
+    public long getTick() { return tick; }
+    public int getDeviceCount() { return deviceCount; }
+    public double getTotal() { return total; }
+    public Map<String, Double> getTotalsByType() { return totalsByType; }
+    public Map<String, Double> getTotalsByLocation() { return totalsByLocation; }
+    public long getDurationNanos() { return durationNanos; }
+}
@@ -0,0 +1,391 @@
+package com.smarthome.energy;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.smarthome.devices.Device;
+
+// Columnar energy accounting: each registered device owns one slot in a set of primitive
+// columns, so a metering tick touches no Device objects and allocates nothing per device.
+// The pass is split into partitions that run in parallel on a fork-join pool.
+// Every tick also records each device's running total in a fixed-size ring buffer.
+// Columns live in fixed-size chunks that are never reallocated, so devices publish their
+// on/power cells with single release writes and never wait for a pass, and readers take
+// no lock. Only energy writers (the pass, single-device ticks, setEnergy) share tickLock,
+// and registration appends chunks under the store's monitor.
+public class EnergyStore {
+    private static final double DEFAULT_POWER = 0.1; // kW drawn while ON
+    private static final double MILLIS_PER_HOUR = 3_600_000.0;
+    private static final int PARTITION_SIZE = 8192;
+    private static final VarHandle BOOLEANS = MethodHandles.arrayElementVarHandle(boolean[].class);
+    private static final VarHandle DOUBLES = MethodHandles.arrayElementVarHandle(double[].class);
+
+    // One fixed-size block of every column
+    private static class Chunk {
+        private final Device[] devices;
+        private final boolean[] on;
+        private final double[] energy;
+        private final double[] power;
+        private final int[] typeIds;
+        private final int[] locationIds;
+        // Ring buffers, historySize entries per slot
+        private final double[] history;
+
+        Chunk(int size, int historySize) {
+            this.devices = new Device[size];
+            this.on = new boolean[size];
+            this.energy = new double[size];
+            this.power = new double[size];
+            this.typeIds = new int[size];
+            this.locationIds = new int[size];
+            this.history = new double[size * historySize];
+        }
+    }
+
+    private final int historySize;
+    private final int chunkBits;
+    private final int chunkMask;
+    private final Object tickLock = new Object();
+    private volatile Chunk[] chunks;
+    // Slots below count are fully registered
+    private volatile int count;
+    private volatile long ticks;
+
+    private final Map<String, Integer> typeIndex;
+    private final Map<String, Integer> locationIndex;
+
+    public EnergyStore() {
+        this(1024, 24);
+    }
+
+    public EnergyStore(int initialCapacity, int historySize) {
+        this.historySize = historySize;
+        int chunkSize = Math.min(PARTITION_SIZE, Math.max(16, initialCapacity));
+        this.chunkBits = 32 - Integer.numberOfLeadingZeros(chunkSize - 1);
+        this.chunkMask = (1 << chunkBits) - 1;
+        Chunk[] initial = new Chunk[Math.max(1, (initialCapacity + chunkMask) >>> chunkBits)];
+        for (int i = 0; i < initial.length; i++) {
+            initial[i] = new Chunk(1 << chunkBits, historySize);
+        }
+        this.chunks = initial;
+        this.typeIndex = new ConcurrentHashMap<>();
+        this.locationIndex = new ConcurrentHashMap<>();
+    }
+
+    // Returns the slot for the device; the device then keeps its energy here
+    public synchronized int register(Device device, boolean isOn, double initialEnergy) {
+        int slot = count;
+        if (slot == chunks.length << chunkBits) {
+            Chunk[] larger = Arrays.copyOf(chunks, chunks.length + 1);
+            larger[chunks.length] = new Chunk(1 << chunkBits, historySize);
+            chunks = larger;
+        }
+        Chunk chunk = chunk(slot);
+        int i = slot & chunkMask;
+        chunk.devices[i] = device;
+        chunk.on[i] = isOn;
+        chunk.energy[i] = initialEnergy;
+        chunk.power[i] = DEFAULT_POWER;
+        chunk.typeIds[i] = idFor(typeIndex, device.getDeviceType());
+        chunk.locationIds[i] = idFor(locationIndex, device.getLocation());
+        Arrays.fill(chunk.history, i * historySize, (i + 1) * historySize, initialEnergy);
+        // Publishes the slot's cells and index entries to lock-free readers
+        count = slot + 1;
+        return slot;
+    }
+
+    // Energy is power times elapsed hours on every path, bulk or single device
+    public static double hours(long elapsedMillis) {
+        return elapsedMillis / MILLIS_PER_HOUR;
+    }
+
+    // Advances every device by the given number of hours and rolls up the new totals
+    public EnergyReport tick(double hours, ForkJoinPool pool) {
+        synchronized (tickLock) {
+            long start = System.nanoTime();
+            // Index sizes are read after count, so they cover every slot in the pass
+            int size = count;
+            int types = typeIndex.size();
+            int locations = locationIndex.size();
+            int ring = (int) (ticks % historySize);
+            double[] sums = pool.invoke(new TickTask(chunks, 0, size, hours, ring, types, locations));
+            ticks++;
+
+            Map<String, Double> byType = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : typeIndex.entrySet()) {
+                if (entry.getValue() < types) {
+                    byType.put(entry.getKey(), sums[1 + entry.getValue()]);
+                }
+            }
+            Map<String, Double> byLocation = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : locationIndex.entrySet()) {
+                if (entry.getValue() < locations) {
+                    byLocation.put(entry.getKey(), sums[1 + types + entry.getValue()]);
+                }
+            }
+            return new EnergyReport(ticks, size, sums[0], byType, byLocation, System.nanoTime() - start);
+        }
+    }
+
+    // Advances one device by the given number of hours outside the bulk pass
+    public void tick(int slot, double hours) {
+        Chunk chunk = chunk(slot);
+        int i = slot & chunkMask;
+        synchronized (tickLock) {
+            if ((boolean) BOOLEANS.getAcquire(chunk.on, i)) {
+                DOUBLES.setRelease(chunk.energy, i, chunk.energy[i] + (double) DOUBLES.getAcquire(chunk.power, i) * hours);
+            }
+        }
+    }
+
+    public double getEnergy(int slot) {
+        return (double) DOUBLES.getAcquire(chunk(slot).energy, slot & chunkMask);
+    }
+
+    public void setEnergy(int slot, double value) {
+        Chunk chunk = chunk(slot);
+        synchronized (tickLock) {
+            DOUBLES.setRelease(chunk.energy, slot & chunkMask, value);
+        }
+    }
+
+    public void setOn(int slot, boolean isOn) {
+        BOOLEANS.setRelease(chunk(slot).on, slot & chunkMask, isOn);
+    }
+
+    public void setPower(int slot, double kilowatts) {
+        DOUBLES.setRelease(chunk(slot).power, slot & chunkMask, kilowatts);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getTickCount() {
+        return ticks;
+    }
+
+    // Aggregate queries
+    public double getTotal() {
+        int size = count;
+        double total = 0;
+        for (int slot = 0; slot < size; slot++) {
+            total += getEnergy(slot);
+        }
+        return total;
+    }
+
+    public double getTotalByType(String type) {
+        return sumWhere(false, typeIndex.get(type));
+    }
+
+    public double getTotalByLocation(String location) {
+        return sumWhere(true, locationIndex.get(location));
+    }
+
+    public Map<String, Double> getTotalsByType() {
+        return totalsBy(false, typeIndex);
+    }
+
+    public Map<String, Double> getTotalsByLocation() {
+        return totalsBy(true, locationIndex);
+    }
+
+    // Highest consumers first, selected with a bounded min-heap of slots. Energy is read
+    // once per slot into the heap's keys, so a concurrent pass cannot break its order.
+    public Device[] getTopConsumers(int n) {
+        int count = this.count;
+        int size = Math.min(n, count);
+        int[] heap = new int[size];
+        double[] keys = new double[size];
+        int filled = 0;
+        for (int slot = 0; slot < count; slot++) {
+            double value = getEnergy(slot);
+            if (filled < size) {
+                heap[filled] = slot;
+                keys[filled] = value;
+                siftUp(heap, keys, filled++);
+            } else if (size > 0 && value > keys[0]) {
+                heap[0] = slot;
+                keys[0] = value;
+                siftDown(heap, keys, 0, size);
+            }
+        }
+
+        Device[] result = new Device[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = chunk(heap[0]).devices[heap[0] & chunkMask];
+            heap[0] = heap[i];
+            keys[0] = keys[i];
+            siftDown(heap, keys, 0, i);
+        }
+        return result;
+    }
+
+    // Energy after each recorded tick, oldest first
+    public double[] getHistory(int slot) {
+        Chunk chunk = chunk(slot);
+        int base = (slot & chunkMask) * historySize;
+        synchronized (tickLock) {
+            int recorded = (int) Math.min(ticks, historySize);
+            double[] series = new double[recorded];
+            long first = ticks - recorded;
+            for (int i = 0; i < recorded; i++) {
+                series[i] = chunk.history[base + (int) ((first + i) % historySize)];
+            }
+            return series;
+        }
+    }
+
+    // Updates a range of slots, splitting until partitions are small enough.
+    // Result layout: [total, per-type sums..., per-location sums...]
+    private class TickTask extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+        private final double hours;
+        private final int ring;
+        private final int types;
+        private final int locations;
+
+        TickTask(Chunk[] chunks, int from, int to, double hours, int ring, int types, int locations) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.hours = hours;
+            this.ring = ring;
+            this.types = types;
+            this.locations = locations;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (to - from > PARTITION_SIZE) {
+                int mid = (from + to) >>> 1;
+                TickTask left = new TickTask(chunks, from, mid, hours, ring, types, locations);
+                left.fork();
+                double[] right = new TickTask(chunks, mid, to, hours, ring, types, locations).compute();
+                double[] sums = left.join();
+                for (int i = 0; i < sums.length; i++) {
+                    sums[i] += right[i];
+                }
+                return sums;
+            }
+
+            double[] sums = new double[1 + types + locations];
+            int slot = from;
+            while (slot < to) {
+                Chunk chunk = chunks[slot >>> chunkBits];
+                int base = slot & ~chunkMask;
+                int end = Math.min(to, base + chunkMask + 1);
+                for (; slot < end; slot++) {
+                    int i = slot - base;
+                    double value = chunk.energy[i];
+                    if ((boolean) BOOLEANS.getAcquire(chunk.on, i)) {
+                        value += (double) DOUBLES.getAcquire(chunk.power, i) * hours;
+                        DOUBLES.setRelease(chunk.energy, i, value);
+                    }
+                    chunk.history[i * historySize + ring] = value;
+                    sums[0] += value;
+                    sums[1 + chunk.typeIds[i]] += value;
+                    sums[1 + types + chunk.locationIds[i]] += value;
+                }
+            }
+            return sums;
+        }
+    }
+
+    private Chunk chunk(int slot) {
+        return chunks[slot >>> chunkBits];
+    }
+
+    private double sumWhere(boolean byLocation, Integer id) {
+        if (id == null) {
+            return 0;
+        }
+        int match = id;
+        int size = count;
+        double total = 0;
+        for (int slot = 0; slot < size; slot++) {
+            Chunk chunk = chunk(slot);
+            int i = slot & chunkMask;
+            if ((byLocation ? chunk.locationIds[i] : chunk.typeIds[i]) == match) {
+                total += (double) DOUBLES.getAcquire(chunk.energy, i);
+            }
+        }
+        return total;
+    }
+
+    private Map<String, Double> totalsBy(boolean byLocation, Map<String, Integer> index) {
+        int size = count;
+        double[] sums = new double[index.size()];
+        for (int slot = 0; slot < size; slot++) {
+            Chunk chunk = chunk(slot);
+            int i = slot & chunkMask;
+            sums[byLocation ? chunk.locationIds[i] : chunk.typeIds[i]] += (double) DOUBLES.getAcquire(chunk.energy, i);
+        }
+        Map<String, Double> totals = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : index.entrySet()) {
+            if (entry.getValue() < sums.length) {
+                totals.put(entry.getKey(), sums[entry.getValue()]);
+            }
+        }
+        return totals;
+    }
+
+    private static void siftUp(int[] heap, double[] keys, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (keys[i] >= keys[parent]) {
+                return;
+            }
+            swap(heap, keys, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, double[] keys, int i, int size) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && keys[left] < keys[smallest]) {
+                smallest = left;
+            }
+            if (right < size && keys[right] < keys[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(heap, keys, i, smallest);
+            i = smallest;
+        }
+    }
+
+    private static void swap(int[] heap, double[] keys, int a, int b) {
+        int slot = heap[a];
+        heap[a] = heap[b];
+        heap[b] = slot;
+        double key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+    }
+
+    private static int idFor(Map<String, Integer> index, String key) {
+        Integer id = index.get(key);
+        if (id == null) {
+            id = index.size();
+            index.put(key, id);
+        }
+        return id;
+    }
+}
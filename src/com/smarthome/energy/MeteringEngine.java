@@ -0,0 +1,74 @@
+package com.smarthome.energy;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Advances the whole fleet's energy on a fixed tick, partitioning the store across a
+// fork-join pool, and keeps the latest rolled-up report for dashboards
+public class MeteringEngine {
+    private final Supplier<EnergyStore> store;
+    private final ForkJoinPool pool;
+    private final long tickMillis;
+    private ScheduledExecutorService timer;
+    private volatile EnergyReport lastReport;
+    private volatile Consumer<EnergyReport> listener;
+
+    public MeteringEngine(Supplier<EnergyStore> store, long tickMillis, int parallelism) {
+        this.store = store;
+        this.tickMillis = tickMillis;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    // Runs one tick on the caller's thread, using the pool for the partitions
+    public EnergyReport tick() {
+        EnergyReport report = store.get().tick(EnergyStore.hours(tickMillis), pool);
+        lastReport = report;
+        Consumer<EnergyReport> current = listener;
+        if (current != null) {
+            current.accept(report);
+        }
+        return report;
+    }
+
+    // Receives every report on the ticking thread
+    public void setListener(Consumer<EnergyReport> listener) {
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metering");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdown();
+            timer = null;
+        }
+    }
+
+    // Stops the timer and releases the fork-join pool; later ticks are rejected
+    public synchronized void shutdown() {
+        stop();
+        pool.shutdown();
+    }
+
+    public EnergyReport getLastReport() {
+        return lastReport;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+}
@@ -0,0 +1,37 @@
+package com.smarthome.events;
+
+import com.smarthome.devices.Device;
+
+// Immutable copy of a device's state, taken right after it changed
+public class DeviceEvent {
+    private final long sequence;
+    private final long timestamp;
+    private final Device device;
+    private final boolean on;
+    private final int stateValue;
+    private final String stateText;
+
+    DeviceEvent(long sequence, Device device) {
+        this.sequence = sequence;
+        this.timestamp = System.currentTimeMillis();
+        this.device = device;
+        this.on = device.isOn();
+        this.stateValue = device.getStateValue();
+        this.stateText = device.getStateText();
+    }
+
+    // Getters
+    public long getSequence() { return sequence; }
+    public long getTimestamp() { return timestamp; }
+    public Device getDevice() { return device; }
+    public String getDeviceId() { return device.getDeviceId(); }
+    public boolean isOn() { return on; }
+    public int getStateValue() { return stateValue; }
+    public String getStateText() { return stateText; }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + device.getDeviceId() + (on ? " ON " : " OFF ") + stateValue
+                + (stateText != null ? " " + stateText : "");
+    }
+}
@@ -0,0 +1,276 @@
+package com.smarthome.events;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import com.smarthome.devices.Device;
+import com.smarthome.devices.DeviceListener;
+
+// Publishes every device state change to Flow subscribers.
+// Each subscriber has its own bounded buffer and is fed on the executor as it requests
+// more, so a slow consumer never blocks devices or other subscribers. When a buffer is
+// full the subscriber's overflow policy decides what is lost.
+public class DeviceEventBus implements Flow.Publisher<DeviceEvent>, DeviceListener {
+    public enum Overflow {
+        DROP_OLDEST, // discard the oldest buffered event
+        DROP_NEWEST, // discard the incoming event
+        COALESCE     // keep only the latest event per device; drop the oldest device when full
+    }
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final Executor executor;
+    private final List<EventSubscription> subscriptions;
+    private final AtomicLong sequence;
+
+    public DeviceEventBus() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public DeviceEventBus(Executor executor) {
+        this.executor = executor;
+        this.subscriptions = new CopyOnWriteArrayList<>();
+        this.sequence = new AtomicLong();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super DeviceEvent> subscriber) {
+        subscribe(subscriber, DEFAULT_CAPACITY, Overflow.COALESCE);
+    }
+
+    public void subscribe(Flow.Subscriber<? super DeviceEvent> subscriber, int capacity, Overflow overflow) {
+        subscribe(subscriber, capacity, overflow, null);
+    }
+
+    // Only events from devices the filter accepts are buffered, so they never compete with
+    // the rest of the fleet for buffer space; a null filter accepts every device
+    public void subscribe(Flow.Subscriber<? super DeviceEvent> subscriber, int capacity, Overflow overflow,
+                          Predicate<Device> filter) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        EventSubscription subscription = new EventSubscription(subscriber, capacity, overflow, filter);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+    }
+
+    // Called by devices after each state change; allocates nothing when nobody listens
+    @Override
+    public void deviceChanged(Device device) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        DeviceEvent event = new DeviceEvent(sequence.incrementAndGet(), device);
+        for (EventSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    // Events lost to full buffers across all current subscribers
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (EventSubscription subscription : subscriptions) {
+            dropped += subscription.getDropped();
+        }
+        return dropped;
+    }
+
+    // Delivers what is buffered, then completes every subscriber
+    public void close() {
+        for (EventSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+        subscriptions.clear();
+    }
+
+    private class EventSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super DeviceEvent> subscriber;
+        private final int capacity;
+        private final Overflow overflow;
+        private final Predicate<Device> filter;
+        // Exactly one is used, depending on the policy
+        private final ArrayDeque<DeviceEvent> queue;
+        private final LinkedHashMap<Device, DeviceEvent> latest;
+        // Serializes delivery: the drain loop runs only while this is non-zero
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+
+        // Guarded by this
+        private long demand;
+        private long dropped;
+        private boolean cancelled;
+        private boolean completed;
+        private Throwable error;
+
+        EventSubscription(Flow.Subscriber<? super DeviceEvent> subscriber, int capacity, Overflow overflow,
+                          Predicate<Device> filter) {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.overflow = overflow;
+            this.filter = filter;
+            this.queue = overflow == Overflow.COALESCE ? null : new ArrayDeque<>();
+            this.latest = overflow == Overflow.COALESCE ? new LinkedHashMap<>() : null;
+        }
+
+        void offer(DeviceEvent event) {
+            if (filter != null && !filter.test(event.getDevice())) {
+                return;
+            }
+            synchronized (this) {
+                if (cancelled || completed) {
+                    return;
+                }
+                if (latest != null) {
+                    // Replacing an existing key keeps its place in line
+                    if (!latest.containsKey(event.getDevice()) && latest.size() >= capacity) {
+                        Iterator<Map.Entry<Device, DeviceEvent>> eldest = latest.entrySet().iterator();
+                        eldest.next();
+                        eldest.remove();
+                        dropped++;
+                    }
+                    latest.put(event.getDevice(), event);
+                } else if (queue.size() < capacity) {
+                    queue.add(event);
+                } else if (overflow == Overflow.DROP_OLDEST) {
+                    queue.poll();
+                    queue.add(event);
+                    dropped++;
+                } else {
+                    dropped++;
+                    return;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive request: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        synchronized long getDropped() {
+            return dropped;
+        }
+
+        void complete() {
+            synchronized (this) {
+                completed = true;
+            }
+            drain();
+        }
+
+        private void drain() {
+            if (pendingDrains.getAndIncrement() == 0) {
+                executor.execute(this::deliver);
+            }
+        }
+
+        private void deliver() {
+            int missed = 1;
+            while (true) {
+                while (true) {
+                    DeviceEvent next;
+                    Throwable failed = null;
+                    boolean done = false;
+                    synchronized (this) {
+                        if (cancelled) {
+                            return;
+                        }
+                        next = demand > 0 ? poll() : null;
+                        if (error != null) {
+                            failed = error;
+                        } else if (next == null && completed && isEmpty()) {
+                            done = true;
+                        }
+                        if (failed != null || done) {
+                            cancelled = true;
+                            clear();
+                        } else if (next != null && demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    }
+                    if (failed != null) {
+                        subscriptions.remove(this);
+                        subscriber.onError(failed);
+                        return;
+                    }
+                    if (done) {
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(next);
+                    } catch (Throwable t) {
+                        cancel();
+                        subscriber.onError(t);
+                        return;
+                    }
+                }
+                missed = pendingDrains.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private DeviceEvent poll() {
+            if (queue != null) {
+                return queue.poll();
+            }
+            Iterator<DeviceEvent> oldest = latest.values().iterator();
+            if (!oldest.hasNext()) {
+                return null;
+            }
+            DeviceEvent event = oldest.next();
+            oldest.remove();
+            return event;
+        }
+
+        private boolean isEmpty() {
+            return queue != null ? queue.isEmpty() : latest.isEmpty();
+        }
+
+        private void clear() {
+            if (queue != null) {
+                queue.clear();
+            } else {
+                latest.clear();
+            }
+        }
+    }
+}
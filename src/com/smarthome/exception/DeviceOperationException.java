@@ -1,7 +1,8 @@
 package com.smarthome.exception;
 
+// Thrown for routine rejections on hot paths, so it skips stack trace capture
 public class DeviceOperationException extends SystemException {
     public DeviceOperationException(String message) {
-        super(message);
+        super(message, false);
     }
 }
@@ -5,4 +5,9 @@ public class SystemException extends Exception {
     public SystemException(String message) {
         super(message);
     }
+    
+    // For expected failures where capturing a stack trace is wasted work
+    protected SystemException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
 }
@@ -0,0 +1,114 @@
+package com.smarthome.location;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.smarthome.devices.Device;
+
+// One place in the location tree. The aggregates cover every device attached here or
+// anywhere below, and are kept as running sums so reading them never walks the subtree.
+public class LocationNode {
+    // Set by depth below the site: the first segment is a BUILDING, the second a FLOOR,
+    // and the third and any deeper ones ROOMs
+    public enum Kind { SITE, BUILDING, FLOOR, ROOM }
+
+    private final String name;
+    private final Kind kind;
+    private final LocationNode parent;
+    private final String path;
+    private final Map<String, LocationNode> children;
+    private final Set<Device> devices;
+
+    // Subtree aggregates
+    private final LongAdder deviceCount = new LongAdder();
+    private final LongAdder onCount = new LongAdder();
+    private final DoubleAdder energy = new DoubleAdder();
+    private final LongAdder acCount = new LongAdder();
+    private final LongAdder acTemperatureSum = new LongAdder();
+    // Energy of the devices attached to this node only, as of the last refresh
+    final DoubleAdder ownEnergy = new DoubleAdder();
+
+    LocationNode(String name, Kind kind, LocationNode parent) {
+        this.name = name;
+        this.kind = kind;
+        this.parent = parent;
+        this.path = parent == null || parent.parent == null ? name : parent.path + LocationTree.SEPARATOR + name;
+        this.children = new ConcurrentHashMap<>();
+        this.devices = ConcurrentHashMap.newKeySet();
+    }
+
+    public String getName() { return name; }
+    public Kind getKind() { return kind; }
+    public LocationNode getParent() { return parent; }
+    public String getPath() { return path; }
+
+    public LocationNode getChild(String childName) {
+        return children.get(childName);
+    }
+
+    public Collection<LocationNode> getChildren() {
+        return new ArrayList<>(children.values());
+    }
+
+    // Devices attached directly to this node, not to its descendants
+    public List<Device> getDevices() {
+        return new ArrayList<>(devices);
+    }
+
+    public int getDeviceCount() { return deviceCount.intValue(); }
+    public int getOnCount() { return onCount.intValue(); }
+    public double getEnergy() { return energy.sum(); }
+    public int getAirConditionerCount() { return acCount.intValue(); }
+
+    // NaN when no air conditioner is below this node
+    public double getAverageTemperature() {
+        long count = acCount.sum();
+        return count == 0 ? Double.NaN : (double) acTemperatureSum.sum() / count;
+    }
+
+    LocationNode child(String childName) {
+        return children.computeIfAbsent(childName, key ->
+                new LocationNode(key, kind == Kind.ROOM ? Kind.ROOM : Kind.values()[kind.ordinal() + 1], this));
+    }
+
+    void attach(Device device) {
+        devices.add(device);
+    }
+
+    void detach(Device device) {
+        devices.remove(device);
+    }
+
+    // Applies a change to this node and every ancestor: O(depth)
+    void add(int devicesDelta, int onDelta, double energyDelta, int acDelta, long temperatureDelta) {
+        for (LocationNode node = this; node != null; node = node.parent) {
+            if (devicesDelta != 0) {
+                node.deviceCount.add(devicesDelta);
+            }
+            if (onDelta != 0) {
+                node.onCount.add(onDelta);
+            }
+            if (energyDelta != 0) {
+                node.energy.add(energyDelta);
+            }
+            if (acDelta != 0) {
+                node.acCount.add(acDelta);
+            }
+            if (temperatureDelta != 0) {
+                node.acTemperatureSum.add(temperatureDelta);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + (parent == null ? name : path) + ": " + getDeviceCount() + " devices, "
+                + getOnCount() + " on, " + String.format("%.2f", getEnergy()) + " kWh";
+    }
+}
@@ -0,0 +1,181 @@
+package com.smarthome.location;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.smarthome.devices.AirConditioner;
+import com.smarthome.devices.Device;
+import com.smarthome.energy.EnergyReport;
+
+// Site -> building -> floor -> room hierarchy built from device location strings.
+// A location is a path such as "Main/1/Kitchen"; its segments become the building, floor
+// and room below the site. Kinds go by depth alone, so a plain "Kitchen" is a building.
+// Segments are trimmed and empty ones dropped, so "Main/1/" and "Main / 1" name the same
+// node as "Main/1". Every state change
+// updates the aggregates of the device's node and its ancestors only, so subtree queries
+// are constant time. Energy only moves on metering ticks, so it is refreshed per location
+// from each tick's report rather than per device.
+public class LocationTree {
+    public static final String SEPARATOR = "/";
+
+    // What a device last contributed to the aggregates
+    private static class Contribution {
+        final LocationNode node;
+        boolean on;
+        boolean airConditioner;
+        int temperature;
+
+        Contribution(LocationNode node) {
+            this.node = node;
+        }
+    }
+
+    private final LocationNode root;
+    // Keyed by normalized path
+    private final Map<String, LocationNode> byLocation;
+    private final Map<Device, Contribution> contributions;
+
+    public LocationTree(String siteName) {
+        this(siteName, 16);
+    }
+
+    public LocationTree(String siteName, int expectedDevices) {
+        this.root = new LocationNode(siteName, LocationNode.Kind.SITE, null);
+        this.byLocation = new ConcurrentHashMap<>();
+        this.contributions = new ConcurrentHashMap<>(expectedDevices);
+    }
+
+    public LocationNode getRoot() {
+        return root;
+    }
+
+    // Returns the node for a location path, or null if no device was ever placed there
+    public LocationNode find(String location) {
+        if (location == null || location.isEmpty()) {
+            return root;
+        }
+        String key = normalize(location);
+        LocationNode node = byLocation.get(key);
+        if (node != null) {
+            return node;
+        }
+        node = root;
+        for (String segment : key.split(SEPARATOR)) {
+            if (!segment.isEmpty()) {
+                node = node.getChild(segment);
+                if (node == null) {
+                    return null;
+                }
+            }
+        }
+        return node;
+    }
+
+    public void attach(Device device) {
+        LocationNode node = resolve(device.getLocation());
+        Contribution contribution = new Contribution(node);
+        if (contributions.putIfAbsent(device, contribution) != null) {
+            return;
+        }
+        synchronized (contribution) {
+            node.attach(device);
+            contribution.on = device.isOn();
+            contribution.airConditioner = device instanceof AirConditioner;
+            contribution.temperature = contribution.airConditioner ? device.getStateValue() : 0;
+            double energy = device.getEnergyConsumption();
+            node.ownEnergy.add(energy);
+            node.add(1, contribution.on ? 1 : 0, energy, contribution.airConditioner ? 1 : 0,
+                    contribution.temperature);
+        }
+    }
+
+    public void detach(Device device) {
+        Contribution contribution = contributions.remove(device);
+        if (contribution == null) {
+            return;
+        }
+        synchronized (contribution) {
+            LocationNode node = contribution.node;
+            node.detach(device);
+            double energy = device.getEnergyConsumption();
+            node.ownEnergy.add(-energy);
+            node.add(-1, contribution.on ? -1 : 0, -energy, contribution.airConditioner ? -1 : 0,
+                    -contribution.temperature);
+        }
+    }
+
+    // Folds one device's new state into its ancestors' aggregates
+    public void deviceChanged(Device device) {
+        Contribution contribution = contributions.get(device);
+        if (contribution == null) {
+            return;
+        }
+        synchronized (contribution) {
+            boolean on = device.isOn();
+            int temperature = contribution.airConditioner ? device.getStateValue() : 0;
+            int onDelta = on == contribution.on ? 0 : (on ? 1 : -1);
+            int temperatureDelta = temperature - contribution.temperature;
+            if (onDelta != 0 || temperatureDelta != 0) {
+                contribution.on = on;
+                contribution.temperature = temperature;
+                contribution.node.add(0, onDelta, 0, 0, temperatureDelta);
+            }
+        }
+    }
+
+    // Totals in the report are absolute, so a report that races an attach is corrected
+    // by the next one. The report is keyed by the devices' own location strings, and
+    // spellings of one path are summed before the node is set to their total.
+    public void energyReported(EnergyReport report) {
+        Map<LocationNode, Double> totals = new HashMap<>();
+        for (Map.Entry<String, Double> entry : report.getTotalsByLocation().entrySet()) {
+            LocationNode node = byLocation.get(normalize(entry.getKey()));
+            if (node != null) {
+                totals.merge(node, entry.getValue(), Double::sum);
+            }
+        }
+        for (Map.Entry<LocationNode, Double> entry : totals.entrySet()) {
+            LocationNode node = entry.getKey();
+            double delta;
+            synchronized (node) {
+                delta = entry.getValue() - node.ownEnergy.sum();
+                node.ownEnergy.add(delta);
+            }
+            node.add(0, 0, delta, 0, 0);
+        }
+    }
+
+    // Trimmed, non-empty segments joined by the separator; "" for the site itself
+    static String normalize(String location) {
+        if (location == null || location.isEmpty()) {
+            return "";
+        }
+        StringBuilder path = new StringBuilder(location.length());
+        for (String segment : location.split(SEPARATOR)) {
+            String trimmed = segment.trim();
+            if (!trimmed.isEmpty()) {
+                if (path.length() > 0) {
+                    path.append(SEPARATOR);
+                }
+                path.append(trimmed);
+            }
+        }
+        return path.toString();
+    }
+
+    private LocationNode resolve(String location) {
+        String key = normalize(location);
+        LocationNode node = byLocation.get(key);
+        if (node == null) {
+            node = root;
+            for (String segment : key.split(SEPARATOR)) {
+                if (!segment.isEmpty()) {
+                    node = node.child(segment);
+                }
+            }
+            byLocation.putIfAbsent(key, node);
+        }
+        return node;
+    }
+}
@@ -0,0 +1,90 @@
+package com.smarthome.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Hands events to a background thread through a bounded lock-free ring buffer.
+// Producers claim a sequence with CAS and never block; when the ring is full the event
+// is dropped and counted. A single drain thread forwards events to the delegate sink.
+public class AsyncSink implements EventSink {
+    private final EventSink delegate;
+    private final AtomicReferenceArray<LogEvent> ring;
+    private final int mask;
+    private final AtomicLong tail;
+    private final AtomicLong dropped;
+    private final Thread drainer;
+    private volatile long head;
+    private volatile boolean running;
+
+    public AsyncSink(EventSink delegate, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.delegate = delegate;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.running = true;
+        this.drainer = new Thread(this::drainLoop, "event-drain");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    @Override
+    public void publish(LogEvent event) {
+        while (true) {
+            long seq = tail.get();
+            if (seq - head > mask) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (tail.compareAndSet(seq, seq + 1)) {
+                ring.lazySet((int) (seq & mask), event);
+                return;
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Stops the drain thread after flushing whatever is already in the ring
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    private void drainLoop() {
+        while (running || head < tail.get()) {
+            if (!drainAvailable()) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    private boolean drainAvailable() {
+        boolean drained = false;
+        long next = head;
+        while (next < tail.get()) {
+            int index = (int) (next & mask);
+            LogEvent event = ring.get(index);
+            if (event == null) {
+                // Slot claimed but not yet written
+                break;
+            }
+            ring.lazySet(index, null);
+            head = ++next;
+            delegate.publish(event);
+            drained = true;
+        }
+        return drained;
+    }
+}
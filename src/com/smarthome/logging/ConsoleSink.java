@@ -0,0 +1,9 @@
+package com.smarthome.logging;
+
+// Writes events to standard output as they are published
+public class ConsoleSink implements EventSink {
+    @Override
+    public void publish(LogEvent event) {
+        System.out.println(event.getMessage());
+    }
+}
@@ -0,0 +1,114 @@
+package com.smarthome.logging;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Process-wide entry point for operational events.
+// Callers pass the pieces of a message rather than a built string, and the level check is a
+// single volatile read, so disabled events cost nothing beyond the call. The default sink
+// writes only ERROR events to standard error; applications install a console or
+// asynchronous sink, or the no-op sink to discard everything.
+public final class EventLog {
+    private static volatile EventSink sink = StderrSink.INSTANCE;
+    private static volatile Level level = Level.INFO;
+    // Lowest level that reaches the sink; ERROR for the default sink, OFF for the no-op one
+    private static volatile int threshold = Level.ERROR.ordinal();
+    // Keep one in N events per level
+    private static final int[] sampleRates = {1, 1, 1, 1, 1};
+
+    private EventLog() {
+    }
+
+    public static boolean isEnabled(Level eventLevel) {
+        return eventLevel.ordinal() >= threshold;
+    }
+
+    public static void debug(String category, Object subject, String action) {
+        log(Level.DEBUG, category, subject, action, null);
+    }
+
+    public static void debug(String category, Object subject, String action, Object value) {
+        log(Level.DEBUG, category, subject, action, value);
+    }
+
+    public static void info(String category, Object subject, String action) {
+        log(Level.INFO, category, subject, action, null);
+    }
+
+    public static void info(String category, Object subject, String action, Object value) {
+        log(Level.INFO, category, subject, action, value);
+    }
+
+    public static void info(String category, Object subject, String action, Object value,
+                            String detailAction, Object detail) {
+        log(Level.INFO, category, subject, action, value, detailAction, detail);
+    }
+
+    public static void warn(String category, Object subject, String action) {
+        log(Level.WARN, category, subject, action, null);
+    }
+
+    public static void warn(String category, Object subject, String action, Object value) {
+        log(Level.WARN, category, subject, action, value);
+    }
+
+    public static void warn(String category, Object subject, String action, Object value,
+                            String detailAction, Object detail) {
+        log(Level.WARN, category, subject, action, value, detailAction, detail);
+    }
+
+    public static void error(String category, Object subject, String action, Object value) {
+        log(Level.ERROR, category, subject, action, value);
+    }
+
+    public static void log(Level eventLevel, String category, Object subject, String action, Object value) {
+        log(eventLevel, category, subject, action, value, null, null);
+    }
+
+    // A second action/value pair, for events that report two quantities
+    public static void log(Level eventLevel, String category, Object subject, String action, Object value,
+                           String detailAction, Object detail) {
+        int ordinal = eventLevel.ordinal();
+        if (ordinal < threshold) {
+            return;
+        }
+        int rate = sampleRates[ordinal];
+        if (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0) {
+            return;
+        }
+        sink.publish(new LogEvent(eventLevel, category, subject, action, value, detailAction, detail));
+    }
+
+    // Replaces the sink; the previous one is closed so asynchronous sinks flush
+    public static synchronized void setSink(EventSink newSink) {
+        EventSink previous = sink;
+        sink = newSink;
+        updateThreshold();
+        if (previous != newSink) {
+            previous.close();
+        }
+    }
+
+    public static synchronized void setLevel(Level newLevel) {
+        level = newLevel;
+        updateThreshold();
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    // Keeps one in every oneIn events at the given level
+    public static void setSampling(Level eventLevel, int oneIn) {
+        sampleRates[eventLevel.ordinal()] = Math.max(1, oneIn);
+    }
+
+    private static void updateThreshold() {
+        if (sink == NoOpSink.INSTANCE) {
+            threshold = Level.OFF.ordinal();
+        } else if (sink == StderrSink.INSTANCE) {
+            threshold = Math.max(level.ordinal(), Level.ERROR.ordinal());
+        } else {
+            threshold = level.ordinal();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.smarthome.logging;
+
+// Destination for published events
+public interface EventSink {
+    void publish(LogEvent event);
+
+    default void close() {
+    }
+}
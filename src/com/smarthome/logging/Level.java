@@ -0,0 +1,6 @@
+package com.smarthome.logging;
+
+// Event severity, lowest first; OFF disables everything
+public enum Level {
+    DEBUG, INFO, WARN, ERROR, OFF
+}
@@ -0,0 +1,58 @@
+package com.smarthome.logging;
+
+// A structured event; the message text is only built when a sink formats it
+public class LogEvent {
+    private final long timestamp;
+    private final Level level;
+    private final String category;
+    private final Object subject;
+    private final String action;
+    private final Object value;
+    private final String detailAction;
+    private final Object detail;
+
+    public LogEvent(Level level, String category, Object subject, String action, Object value) {
+        this(level, category, subject, action, value, null, null);
+    }
+
+    public LogEvent(Level level, String category, Object subject, String action, Object value,
+                    String detailAction, Object detail) {
+        this.timestamp = System.currentTimeMillis();
+        this.level = level;
+        this.category = category;
+        this.subject = subject;
+        this.action = action;
+        this.value = value;
+        this.detailAction = detailAction;
+        this.detail = detail;
+    }
+
+    // "<category> <subject> <action> <value> <detail action> <detail>", skipping missing parts
+    public String getMessage() {
+        StringBuilder message = new StringBuilder(64).append(category);
+        if (subject != null) {
+            message.append(' ').append(subject);
+        }
+        message.append(' ').append(action);
+        if (value != null) {
+            message.append(' ').append(value);
+        }
+        if (detailAction != null) {
+            message.append(' ').append(detailAction);
+        }
+        if (detail != null) {
+            message.append(' ').append(detail);
+        }
+        return message.toString();
+    }
+
+    // Getters
+    public long getTimestamp() { return timestamp; }
+    public Level getLevel() { return level; }
+    public String getCategory() { return category; }
+    public Object getSubject() { return subject; }
+    public String getAction() { return action; }
+    public Object getValue() { return value; }
+    public String getDetailAction() { return detailAction; }
+    public Object getDetail() { return detail; }
+}
@@ -0,0 +1,17 @@
+package com.smarthome.logging;
+
+// Writes ERROR events to standard error. Installed until an application picks its own sink,
+// so failures are never dropped silently; EventLog does not publish lower levels to it.
+public class StderrSink implements EventSink {
+    public static final StderrSink INSTANCE = new StderrSink();
+
+    private StderrSink() {
+    }
+
+    @Override
+    public void publish(LogEvent event) {
+        if (event.getLevel() == Level.ERROR) {
+            System.err.println(event.getMessage());
+        }
+    }
+}
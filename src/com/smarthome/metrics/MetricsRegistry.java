@@ -0,0 +1,141 @@
+package com.smarthome.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
+
+// Counters and latency histograms for commands, rules, persistence and errors.
+// Hot-path updates are striped LongAdder increments found through nested maps, so a hit
+// allocates nothing; readers only sum the adders and never block writers.
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    // Label for command names that are not device commands, so client input cannot grow the map
+    private static final String OTHER_COMMAND = "OTHER";
+    // Rule names are user input too: past this many, further rules share the OTHER label
+    static final int MAX_RULE_LABELS = 1000;
+    private static final String OTHER_RULE = "OTHER";
+    // Error label for commands a device rejected, counted beside the exception types
+    public static final String REJECTED_COMMAND = "RejectedCommand";
+
+    // command -> device type -> count
+    private final Map<String, Map<String, LongAdder>> commands;
+    private final Map<String, LongAdder> ruleFires;
+    private final Map<String, LongAdder> errors;
+    private final Map<String, LatencyHistogram> latencies;
+
+    public MetricsRegistry() {
+        this.commands = new ConcurrentHashMap<>();
+        this.ruleFires = new ConcurrentHashMap<>();
+        this.errors = new ConcurrentHashMap<>();
+        this.latencies = new ConcurrentHashMap<>();
+    }
+
+    // Process-wide registry that devices, rules and the system core record into
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public void recordCommand(String command, String deviceType) {
+        String label = DeviceCommand.fromName(command) != null ? command : OTHER_COMMAND;
+        commands.computeIfAbsent(label, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(deviceType, k -> new LongAdder())
+                .increment();
+    }
+
+    public void recordRuleFire(String ruleName) {
+        LongAdder adder = ruleFires.get(ruleName);
+        if (adder == null) {
+            // The size check races, so the cap can be overshot by a few concurrent first fires
+            String label = ruleFires.size() < MAX_RULE_LABELS ? ruleName : OTHER_RULE;
+            adder = ruleFires.computeIfAbsent(label, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    public void recordError(Throwable error) {
+        errors.computeIfAbsent(error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    // Counts a REJECTED outcome as an error; the other transitions are not errors
+    public void recordTransition(Transition result) {
+        if (result == Transition.REJECTED) {
+            errors.computeIfAbsent(REJECTED_COMMAND, k -> new LongAdder()).increment();
+        }
+    }
+
+    public void recordLatency(String operation, long nanos) {
+        latencies.computeIfAbsent(operation, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    public long getCommandCount(String command, String deviceType) {
+        Map<String, LongAdder> byType = commands.get(command);
+        LongAdder adder = byType != null ? byType.get(deviceType) : null;
+        return adder != null ? adder.sum() : 0;
+    }
+
+    // Rules past the label cap are only counted under OTHER
+    public long getRuleFireCount(String ruleName) {
+        LongAdder adder = ruleFires.get(ruleName);
+        return adder != null ? adder.sum() : 0;
+    }
+
+    public long getErrorCount(String exceptionType) {
+        LongAdder adder = errors.get(exceptionType);
+        return adder != null ? adder.sum() : 0;
+    }
+
+    public LatencyHistogram.Snapshot getLatency(String operation) {
+        LatencyHistogram histogram = latencies.get(operation);
+        return histogram != null ? histogram.snapshot() : null;
+    }
+
+    // Prometheus text exposition format, version 0.0.4
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+
+        out.append("# TYPE smarthome_commands_total counter\n");
+        for (Map.Entry<String, Map<String, LongAdder>> command : new TreeMap<>(commands).entrySet()) {
+            for (Map.Entry<String, LongAdder> type : new TreeMap<>(command.getValue()).entrySet()) {
+                out.append("smarthome_commands_total{command=\"").append(escape(command.getKey()))
+                   .append("\",device_type=\"").append(escape(type.getKey())).append("\"} ")
+                   .append(type.getValue().sum()).append('\n');
+            }
+        }
+
+        out.append("# TYPE smarthome_rule_fires_total counter\n");
+        for (Map.Entry<String, LongAdder> rule : new TreeMap<>(ruleFires).entrySet()) {
+            out.append("smarthome_rule_fires_total{rule=\"").append(escape(rule.getKey())).append("\"} ")
+               .append(rule.getValue().sum()).append('\n');
+        }
+
+        out.append("# TYPE smarthome_errors_total counter\n");
+        for (Map.Entry<String, LongAdder> error : new TreeMap<>(errors).entrySet()) {
+            out.append("smarthome_errors_total{exception=\"").append(escape(error.getKey())).append("\"} ")
+               .append(error.getValue().sum()).append('\n');
+        }
+
+        out.append("# TYPE smarthome_operation_seconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> operation : new TreeMap<>(latencies).entrySet()) {
+            String label = "operation=\"" + escape(operation.getKey()) + "\"";
+            LatencyHistogram.Snapshot snapshot = operation.getValue().snapshot();
+            for (double quantile : QUANTILES) {
+                out.append("smarthome_operation_seconds{").append(label).append(",quantile=\"").append(quantile)
+                   .append("\"} ").append(snapshot.percentile(quantile) / 1e9).append('\n');
+            }
+            out.append("smarthome_operation_seconds_sum{").append(label).append("} ")
+               .append(snapshot.getSumNanos() / 1e9).append('\n');
+            out.append("smarthome_operation_seconds_count{").append(label).append("} ")
+               .append(snapshot.getCount()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
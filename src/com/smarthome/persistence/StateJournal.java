@@ -0,0 +1,394 @@
+package com.smarthome.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.smarthome.devices.Device;
+
+// Append-only journal of device and rule mutations, split into numbered segments.
+// Appenders encode records into a shared buffer; a writer thread flushes the buffer
+// in batches (group commit) and fsyncs according to the durability level.
+// Each record is framed as length, CRC32, payload so a torn tail is detected on replay.
+// Under SYNC an append blocks for a whole fsync, so callers that journal while holding a
+// lock, such as a device monitor, should queue with enqueueDevice and call awaitDurable
+// once the lock is released.
+public class StateJournal {
+    public enum Durability {
+        NONE,    // written to the OS by the writer thread, never fsynced
+        BATCHED, // fsynced every sync interval; a crash loses at most one interval
+        SYNC     // appenders wait until their record is fsynced
+    }
+
+    // Applies replayed records; called in journal order
+    public interface ReplayHandler {
+        void applyDevice(String type, String deviceId, String name, String location,
+                         boolean isOn, double energy, int stateValue, String stateText);
+        void applyRule(String ruleName, String triggerDeviceId, String triggerCondition,
+                       String action, String[] targetDeviceIds);
+        void applyRuleRemoved(String ruleName);
+    }
+
+    private static final byte RECORD_DEVICE = 1;
+    private static final byte RECORD_RULE = 2;
+    private static final byte RECORD_RULE_REMOVED = 3;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final Durability durability;
+    private final long syncIntervalMillis;
+    private final Thread writer;
+    // Guards the segment channel; always taken before the journal monitor
+    private final Object ioLock = new Object();
+
+    // Guarded by the journal monitor
+    private ByteArrayOutputStream pending;
+    private DataOutputStream pendingOut;
+    private long appendedSeq;
+    private long writtenSeq;
+    private long durableSeq;
+    private long lastSync;
+    private boolean closed;
+    private IOException failure;
+
+    // Guarded by ioLock
+    private long generation;
+    private FileChannel channel;
+
+    public StateJournal(String directory, Durability durability, long syncIntervalMillis) throws IOException {
+        this.directory = Paths.get(directory);
+        this.durability = durability;
+        this.syncIntervalMillis = syncIntervalMillis;
+        Files.createDirectories(this.directory);
+
+        List<Long> generations = listGenerations(this.directory);
+        this.generation = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+        this.channel = openSegment(generation);
+        this.pending = new ByteArrayOutputStream(1 << 16);
+        this.pendingOut = new DataOutputStream(pending);
+        this.lastSync = System.currentTimeMillis();
+
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void appendDevice(Device device) throws IOException {
+        awaitDurable(enqueueDevice(device));
+    }
+
+    // Queues the device record without waiting for it to become durable; returns its sequence
+    public long enqueueDevice(Device device) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_DEVICE);
+        writeString(out, device.getDeviceType());
+        writeString(out, device.getDeviceId());
+        writeString(out, device.getName());
+        writeString(out, device.getLocation());
+        out.writeBoolean(device.isOn());
+        out.writeDouble(device.getEnergyConsumption());
+        out.writeInt(device.getStateValue());
+        writeString(out, device.getStateText());
+        return enqueue(bytes.toByteArray());
+    }
+
+    public void appendRule(String ruleName, Device triggerDevice, String triggerCondition,
+                           String action, Device[] targetDevices) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_RULE);
+        writeString(out, ruleName);
+        writeString(out, triggerDevice != null ? triggerDevice.getDeviceId() : null);
+        writeString(out, triggerCondition);
+        writeString(out, action);
+        out.writeInt(targetDevices.length);
+        for (Device target : targetDevices) {
+            writeString(out, target.getDeviceId());
+        }
+        append(bytes.toByteArray());
+    }
+
+    public void appendRuleRemoved(String ruleName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_RULE_REMOVED);
+        writeString(out, ruleName);
+        append(bytes.toByteArray());
+    }
+
+    // Flushes the current segment and starts a new one; returns the generation that was closed.
+    // Once a checkpoint covering that generation is durable, deleteSegmentsThrough can drop it.
+    public long rotate() throws IOException {
+        synchronized (ioLock) {
+            flush(true);
+            channel.close();
+            long closedGeneration = generation;
+            generation++;
+            channel = openSegment(generation);
+            return closedGeneration;
+        }
+    }
+
+    public void deleteSegmentsThrough(long lastGeneration) throws IOException {
+        for (long segment : listGenerations(directory)) {
+            if (segment <= lastGeneration) {
+                Files.deleteIfExists(segmentPath(directory, segment));
+            }
+        }
+    }
+
+    // Refuses new appends first, under the monitor append checks, so every acknowledged
+    // record is in the final flush
+    public void close() throws IOException {
+        synchronized (ioLock) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifyAll();
+            }
+            try {
+                flush(true);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                throw e;
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    // Replays every segment in the directory, stopping a segment at its first torn or corrupt record
+    public static void replay(String directory, ReplayHandler handler) throws IOException {
+        Path dir = Paths.get(directory);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        for (long segment : listGenerations(dir)) {
+            replaySegment(segmentPath(dir, segment).toFile(), handler);
+        }
+    }
+
+    private void append(byte[] payload) throws IOException {
+        awaitDurable(enqueue(payload));
+    }
+
+    // Under SYNC, waits until every record up to seq is fsynced; otherwise returns at once
+    public void awaitDurable(long seq) throws IOException {
+        if (durability != Durability.SYNC) {
+            return;
+        }
+        synchronized (this) {
+            while (durableSeq < seq && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for journal sync");
+                }
+            }
+            if (durableSeq < seq) {
+                throw failure;
+            }
+        }
+    }
+
+    private synchronized long enqueue(byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        pendingOut.writeInt(payload.length);
+        pendingOut.writeInt((int) crc.getValue());
+        pendingOut.write(payload);
+        long seq = ++appendedSeq;
+        notifyAll();
+        return seq;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (pending.size() == 0 && !closed && !syncDue()) {
+                        wait(syncIntervalMillis);
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+                synchronized (ioLock) {
+                    synchronized (this) {
+                        // close() ran the final flush while this thread waited for ioLock
+                        if (closed) {
+                            return;
+                        }
+                    }
+                    flush(durability == Durability.SYNC || syncDue());
+                }
+            }
+        } catch (InterruptedException e) {
+            // Daemon thread; exits with the JVM
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized boolean syncDue() {
+        return durability == Durability.BATCHED && durableSeq < writtenSeq
+                && System.currentTimeMillis() - lastSync >= syncIntervalMillis;
+    }
+
+    // Writes the pending batch to the current segment; caller holds ioLock
+    private void flush(boolean sync) throws IOException {
+        byte[] batch;
+        long batchSeq;
+        synchronized (this) {
+            batch = pending.toByteArray();
+            batchSeq = appendedSeq;
+            pending.reset();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        boolean forced = sync && durability != Durability.NONE;
+        if (forced) {
+            channel.force(false);
+        }
+
+        synchronized (this) {
+            writtenSeq = batchSeq;
+            if (forced || durability == Durability.NONE) {
+                durableSeq = batchSeq;
+                lastSync = System.currentTimeMillis();
+            }
+            notifyAll();
+        }
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        return FileChannel.open(segmentPath(directory, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void replaySegment(File file, ReplayHandler handler) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length <= 0 || length > (1 << 24)) {
+                        return;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        return;
+                    }
+                } catch (EOFException e) {
+                    return;
+                }
+                applyRecord(new DataInputStream(new ByteArrayInputStream(payload)), handler);
+            }
+        }
+    }
+
+    private static void applyRecord(DataInputStream in, ReplayHandler handler) throws IOException {
+        switch (in.readByte()) {
+            case RECORD_DEVICE:
+                handler.applyDevice(readString(in), readString(in), readString(in), readString(in),
+                        in.readBoolean(), in.readDouble(), in.readInt(), readString(in));
+                break;
+            case RECORD_RULE:
+                String ruleName = readString(in);
+                String triggerDeviceId = readString(in);
+                String triggerCondition = readString(in);
+                String action = readString(in);
+                String[] targetDeviceIds = new String[in.readInt()];
+                for (int i = 0; i < targetDeviceIds.length; i++) {
+                    targetDeviceIds[i] = readString(in);
+                }
+                handler.applyRule(ruleName, triggerDeviceId, triggerCondition, action, targetDeviceIds);
+                break;
+            case RECORD_RULE_REMOVED:
+                handler.applyRuleRemoved(readString(in));
+                break;
+            default:
+                // Unknown record types from newer versions are skipped
+        }
+    }
+
+    private static List<Long> listGenerations(Path dir) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        File[] files = dir.toFile().listFiles();
+        if (files == null) {
+            return generations;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    generations.add(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                            fileName.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of our segments
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private static Path segmentPath(Path dir, long segment) {
+        return dir.resolve(SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
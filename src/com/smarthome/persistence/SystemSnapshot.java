@@ -0,0 +1,187 @@
+package com.smarthome.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.smarthome.devices.Device;
+
+// Versioned binary snapshot of the device registry.
+// Layout: header (magic, version, system info index), a string table holding every
+// type, id, name, location and text state once, then one fixed-width record per device.
+public class SystemSnapshot {
+    public static final int MAGIC = 0x53484D53; // "SHMS"
+    public static final short VERSION = 1;
+
+    // type, id, name, location, flags, energy, state value, state text
+    private static final int RECORD_SIZE = 4 + 4 + 4 + 4 + 1 + 8 + 4 + 4;
+    private static final byte FLAG_ON = 1;
+
+    // Builds an empty device of the given type, or returns null for unknown types
+    public interface DeviceFactory {
+        Device create(String type, String deviceId, String name, String location);
+    }
+
+    private SystemSnapshot() {
+    }
+
+    public static boolean isSnapshot(String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.available() >= 4 && in.readInt() == MAGIC;
+        }
+    }
+
+    // Writes a temp file beside the target and renames it over the target, so a crash
+    // mid-save leaves the previous snapshot intact instead of a torn one
+    public static void write(String filename, String systemInfo, Device[] devices) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        int systemIndex = intern(strings, systemInfo);
+        int[] records = new int[devices.length * 5];
+        for (int i = 0; i < devices.length; i++) {
+            Device device = devices[i];
+            records[i * 5] = intern(strings, device.getDeviceType());
+            records[i * 5 + 1] = intern(strings, device.getDeviceId());
+            records[i * 5 + 2] = intern(strings, device.getName());
+            records[i * 5 + 3] = intern(strings, device.getLocation());
+            records[i * 5 + 4] = intern(strings, device.getStateText());
+        }
+
+        Path target = Paths.get(filename);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            writeRecords(temp, systemIndex, strings, records, devices);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void writeRecords(Path path, int systemIndex, Map<String, Integer> strings, int[] records,
+                                     Device[] devices) throws IOException {
+        FileOutputStream file = new FileOutputStream(path.toFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(systemIndex);
+
+            out.writeInt(strings.size());
+            for (String value : strings.keySet()) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(devices.length);
+            for (int i = 0; i < devices.length; i++) {
+                Device device = devices[i];
+                out.writeInt(records[i * 5]);
+                out.writeInt(records[i * 5 + 1]);
+                out.writeInt(records[i * 5 + 2]);
+                out.writeInt(records[i * 5 + 3]);
+                out.writeByte(device.isOn() ? FLAG_ON : 0);
+                out.writeDouble(device.getEnergyConsumption());
+                out.writeInt(device.getStateValue());
+                out.writeInt(records[i * 5 + 4]);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+    }
+
+    // Devices of types the factory does not know are skipped
+    public static List<Device> read(String filename, DeviceFactory factory) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a system snapshot: " + filename);
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            buffer.getInt(); // system info index
+
+            String[] strings = readStrings(buffer);
+            int count = buffer.getInt();
+            if (count < 0 || (long) count * RECORD_SIZE > buffer.remaining()) {
+                throw new IOException("Truncated snapshot: " + filename);
+            }
+
+            List<Device> devices = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String type = lookup(strings, buffer.getInt());
+                String deviceId = lookup(strings, buffer.getInt());
+                String name = lookup(strings, buffer.getInt());
+                String location = lookup(strings, buffer.getInt());
+                boolean isOn = (buffer.get() & FLAG_ON) != 0;
+                double energy = buffer.getDouble();
+                int stateValue = buffer.getInt();
+                String stateText = lookup(strings, buffer.getInt());
+
+                Device device = factory.create(type, deviceId, name, location);
+                if (device != null) {
+                    device.restoreState(isOn, energy, stateValue, stateText);
+                    devices.add(device);
+                }
+            }
+            return devices;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt snapshot: " + filename);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IOException("Corrupt string table");
+        }
+        String[] strings = new String[count];
+        byte[] scratch = new byte[256];
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Corrupt string table");
+            }
+            if (length > scratch.length) {
+                scratch = new byte[length];
+            }
+            buffer.get(scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static int intern(Map<String, Integer> strings, String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer index = strings.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.put(value, index);
+        }
+        return index;
+    }
+
+    private static String lookup(String[] strings, int index) {
+        return index < 0 ? null : strings[index];
+    }
+}
@@ -0,0 +1,248 @@
+package com.smarthome.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import com.smarthome.devices.Device;
+
+// Streaming reader for the legacy text state format:
+//   SYSTEM:<info>
+//   DEVICES:<count>
+//   <type>,<id>,<name>,<location>,<isOn>
+// The device lines are split into chunks on line boundaries and parsed in parallel; each
+// chunk maps only its own byte range and tokenizes lines in place without String.split.
+// Nothing is returned unless the whole file parses, so callers can swap the result in.
+public class TextStateLoader {
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final int MAX_CHUNK = 1 << 28;
+    private static final int FIELDS = 5;
+
+    // Called from parsing threads as chunks complete
+    public interface ProgressListener {
+        void progress(long bytesParsed, long totalBytes);
+    }
+
+    private TextStateLoader() {
+    }
+
+    public static List<Device> read(String filename, SystemSnapshot.DeviceFactory factory,
+                                    ProgressListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] header = readHeader(channel, filename);
+            long expected = header[0];
+            long bodyStart = header[1];
+            long[] bounds = chunkBounds(channel, bodyStart, size);
+
+            int chunks = bounds.length - 1;
+            Chunk[] parsed = new Chunk[chunks];
+            AtomicLong done = new AtomicLong(bodyStart);
+            IOException[] failure = new IOException[1];
+            IntStream.range(0, chunks).parallel().forEach(i -> {
+                try {
+                    parsed[i] = new Chunk(factory).parse(channel, bounds[i], bounds[i + 1]);
+                    long total = done.addAndGet(bounds[i + 1] - bounds[i]);
+                    if (listener != null) {
+                        listener.progress(total, size);
+                    }
+                } catch (IOException e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+
+            long lines = 0;
+            int loaded = 0;
+            for (Chunk chunk : parsed) {
+                lines += chunk.lines;
+                loaded += chunk.devices.size();
+            }
+            if (lines < expected) {
+                throw new IOException("Truncated state file: expected " + expected + " devices, found " + lines);
+            }
+            List<Device> devices = new ArrayList<>(loaded);
+            for (Chunk chunk : parsed) {
+                devices.addAll(chunk.devices);
+            }
+            return devices;
+        }
+    }
+
+    // Returns {device count, offset of the first device line}
+    private static long[] readHeader(FileChannel channel, String filename) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 8192));
+        channel.read(buffer, 0);
+        String head = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        int first = head.indexOf('\n');
+        int second = first < 0 ? -1 : head.indexOf('\n', first + 1);
+        if (second < 0) {
+            throw new IOException("Not a state file: " + filename);
+        }
+        String devicesLine = head.substring(first + 1, second).trim();
+        if (!devicesLine.startsWith("DEVICES:")) {
+            throw new IOException("Not a state file: " + filename);
+        }
+        try {
+            long count = Long.parseLong(devicesLine.substring(8).trim());
+            return new long[]{count, head.substring(0, second + 1).getBytes(StandardCharsets.UTF_8).length};
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid device count in " + filename);
+        }
+    }
+
+    // Chunk boundaries, each moved forward to just past the next newline
+    private static long[] chunkBounds(FileChannel channel, long start, long end) throws IOException {
+        long length = end - start;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long target = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, length / (parallelism * 4L) + 1));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long position = start + target;
+        while (position < end) {
+            long boundary = -1;
+            long scan = position;
+            while (boundary < 0 && scan < end) {
+                probe.clear();
+                int read = channel.read(probe, scan);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        boundary = scan + i + 1;
+                        break;
+                    }
+                }
+                scan += read;
+            }
+            if (boundary < 0 || boundary >= end) {
+                break;
+            }
+            bounds.add(boundary);
+            position = boundary + target;
+        }
+        bounds.add(end);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Parses one byte range; reuses its line buffer and field offsets across lines
+    private static class Chunk {
+        private final SystemSnapshot.DeviceFactory factory;
+        private final List<Device> devices = new ArrayList<>();
+        private final int[] starts = new int[FIELDS];
+        private final int[] ends = new int[FIELDS];
+        private byte[] line = new byte[256];
+        private long lines;
+        // Types and locations repeat heavily, so the previous value is reused when it matches
+        private String lastType;
+        private String lastLocation;
+
+        Chunk(SystemSnapshot.DeviceFactory factory) {
+            this.factory = factory;
+        }
+
+        Chunk parse(FileChannel channel, long from, long to) throws IOException {
+            if (to <= from) {
+                return this;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            int limit = buffer.limit();
+            int lineStart = 0;
+            for (int i = 0; i <= limit; i++) {
+                if (i == limit || buffer.get(i) == '\n') {
+                    int length = i - lineStart;
+                    if (length > 0 && buffer.get(i - 1) == '\r') {
+                        length--;
+                    }
+                    if (length > 0) {
+                        if (length > line.length) {
+                            line = new byte[Math.max(length, line.length * 2)];
+                        }
+                        buffer.get(lineStart, line, 0, length);
+                        parseLine(length);
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            return this;
+        }
+
+        private void parseLine(int length) {
+            lines++;
+            int field = 0;
+            starts[0] = 0;
+            for (int i = 0; i < length && field < FIELDS; i++) {
+                if (line[i] == ',') {
+                    ends[field++] = i;
+                    if (field < FIELDS) {
+                        starts[field] = i + 1;
+                    }
+                }
+            }
+            if (field < FIELDS) {
+                if (field < FIELDS - 1) {
+                    return; // malformed lines are skipped, as before
+                }
+                ends[field++] = length;
+            }
+
+            lastType = reuse(lastType, 0);
+            String deviceId = text(1);
+            String name = text(2);
+            lastLocation = reuse(lastLocation, 3);
+            Device device = factory.create(lastType, deviceId, name, lastLocation);
+            if (device != null) {
+                device.restoreState(isTrue(4), 0.0, device.getStateValue(), device.getStateText());
+                devices.add(device);
+            }
+        }
+
+        private String text(int field) {
+            return new String(line, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+        }
+
+        private String reuse(String previous, int field) {
+            int start = starts[field];
+            int length = ends[field] - start;
+            if (previous != null && previous.length() == length) {
+                boolean same = true;
+                for (int i = 0; i < length && same; i++) {
+                    same = line[start + i] == previous.charAt(i);
+                }
+                if (same) {
+                    return previous;
+                }
+            }
+            return text(field);
+        }
+
+        // Same rule as Boolean.parseBoolean
+        private boolean isTrue(int field) {
+            int start = starts[field];
+            if (ends[field] - start != 4) {
+                return false;
+            }
+            return (line[start] | 0x20) == 't' && (line[start + 1] | 0x20) == 'r'
+                    && (line[start + 2] | 0x20) == 'u' && (line[start + 3] | 0x20) == 'e';
+        }
+    }
+}
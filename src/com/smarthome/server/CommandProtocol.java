@@ -0,0 +1,160 @@
+package com.smarthome.server;
+
+import com.smarthome.automation.Automation;
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.Device;
+import com.smarthome.exception.PermissionDeniedException;
+import com.smarthome.exception.SystemException;
+import com.smarthome.logging.EventLog;
+import com.smarthome.user.Permission;
+import com.smarthome.user.Session;
+
+// One connection's side of the line protocol. Every request line gets exactly one reply
+// line, in request order, starting with "OK" or "ERR":
+//   LOGIN <user> <password>                          -> OK <token>
+//   GET <deviceId>                                   -> OK <id> <type> ON|OFF <value> <text|-> <location>
+//   CONTROL <deviceId> <command> [parameter]         -> OK CHANGED|NO_OP|REJECTED
+//   RULE <name> <triggerId|-> <action> <ids> <condition...>  -> OK
+//   SCHEDULE <ids> <action> <time...>                -> OK <scheduleIds>
+//   QUIT                                             -> OK, then the server closes
+// <ids> is a comma-separated list of device ids; the last field takes the rest of the line.
+class CommandProtocol {
+    private final SmartHomeSystem system;
+    private Session session;
+    private boolean closing;
+
+    CommandProtocol(SmartHomeSystem system) {
+        this.system = system;
+    }
+
+    boolean isClosing() {
+        return closing;
+    }
+
+    void close() {
+        if (session != null) {
+            system.closeSession(session);
+            session = null;
+        }
+    }
+
+    String handle(String line) {
+        String[] fields = line.trim().split(" +", 2);
+        String verb = fields[0].toUpperCase();
+        String rest = fields.length > 1 ? fields[1] : "";
+        try {
+            switch (verb) {
+                case "LOGIN":
+                    return login(split(rest, 2));
+                case "QUIT":
+                    closing = true;
+                    return "OK";
+                case "":
+                    return "ERR empty request";
+                default:
+                    if (session == null || !session.isActive()) {
+                        return "ERR not logged in";
+                    }
+                    return dispatch(verb, rest);
+            }
+        } catch (SystemException e) {
+            return "ERR " + e.getMessage();
+        } catch (RuntimeException e) {
+            // A bug below must not cost the connection its reply, or every later request hangs
+            EventLog.error("Server", verb, "request failed:", e);
+            return "ERR internal error";
+        }
+    }
+
+    private String dispatch(String verb, String rest) throws SystemException {
+        switch (verb) {
+            case "GET":
+                return get(split(rest, 1)[0]);
+            case "CONTROL":
+                String[] control = rest.split(" +", 3);
+                if (control.length < 2) {
+                    throw new SystemException("usage: CONTROL <deviceId> <command> [parameter]");
+                }
+                Transition result = control.length == 3
+                        ? system.controlDevice(session, control[0], control[1].toUpperCase(), control[2])
+                        : system.controlDevice(session, control[0], control[1].toUpperCase());
+                return "OK " + result;
+            case "RULE":
+                return rule(split(rest, 5));
+            case "SCHEDULE":
+                return schedule(split(rest, 3));
+            default:
+                return "ERR unknown command " + verb;
+        }
+    }
+
+    private String login(String[] fields) {
+        Session opened = system.openSession(fields[0], fields[1]);
+        if (opened == null) {
+            return "ERR authentication failed";
+        }
+        close();
+        session = opened;
+        return "OK " + opened.getToken();
+    }
+
+    private String get(String deviceId) throws SystemException {
+        if (!session.hasPermission(Permission.VIEW_STATUS)) {
+            throw new PermissionDeniedException("permission denied");
+        }
+        Device device = device(deviceId);
+        String text = device.getStateText();
+        return "OK " + device.getDeviceId() + " " + device.getDeviceType() + " " + (device.isOn() ? "ON" : "OFF")
+                + " " + device.getStateValue() + " " + (text != null ? text : "-") + " " + device.getLocation();
+    }
+
+    private String rule(String[] fields) throws SystemException {
+        if (!session.hasPermission(Permission.ADMIN_MANAGE_RULES)) {
+            throw new PermissionDeniedException("permission denied");
+        }
+        Device trigger = fields[1].equals("-") ? null : device(fields[1]);
+        Device[] targets = devices(fields[3]);
+        Automation automation = system.getAutomation();
+        if (trigger != null) {
+            automation.createRule(fields[0], trigger, fields[4], fields[2].toUpperCase(), targets);
+        } else {
+            automation.createRule(fields[0], fields[4], fields[2].toUpperCase(), targets);
+        }
+        return "OK";
+    }
+
+    private String schedule(String[] fields) throws SystemException {
+        if (!session.hasPermission(Permission.CONTROL_DEVICE)) {
+            throw new PermissionDeniedException("permission denied");
+        }
+        String[] ids = system.getAutomation().scheduleTask(fields[2], fields[1].toUpperCase(), devices(fields[0]));
+        return "OK " + String.join(",", ids);
+    }
+
+    private Device device(String deviceId) throws SystemException {
+        Device device = system.getDevice(deviceId);
+        if (device == null) {
+            throw new SystemException("unknown device " + deviceId);
+        }
+        return device;
+    }
+
+    private Device[] devices(String ids) throws SystemException {
+        String[] parts = ids.split(",");
+        Device[] devices = new Device[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            devices[i] = device(parts[i].trim());
+        }
+        return devices;
+    }
+
+    // Exactly count fields, the last one taking the rest of the line
+    private static String[] split(String rest, int count) throws SystemException {
+        String[] fields = rest.trim().split(" +", count);
+        if (fields.length < count || fields[count - 1].isEmpty()) {
+            throw new SystemException("expected " + count + " arguments");
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,396 @@
+package com.smarthome.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.smarthome.core.SmartHomeSystem;
+import com.smarthome.logging.EventLog;
+import com.smarthome.metrics.MetricsRegistry;
+
+// Non-blocking server for the line protocol in CommandProtocol. An acceptor hands new
+// connections round-robin to a few event loops, each a selector thread that owns its
+// connections' sockets and buffers. The loops only frame lines: requests can block on the
+// journal, device monitors or rule cascades, so they run on a worker pool, one batch per
+// connection at a time to keep replies in request order. Workers post the replies back to
+// the loop, which writes them, so clients may pipeline any number of requests. A connection
+// with more than MAX_QUEUED_REQUESTS unanswered requests, or whose unsent replies pass
+// MAX_PENDING_OUTPUT, stops being read until it catches up.
+public class CommandServer {
+    private static final int MAX_LINE = 8192;
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+    private static final int MAX_QUEUED_REQUESTS = 1024;
+    // Queued in place of a request when a line overflows MAX_LINE; compared by identity
+    private static final String LINE_TOO_LONG = new String("line too long");
+
+    // Per-connection buffers and protocol state. Buffers and counters are touched only by the
+    // event loop; the protocol only by whoever holds the scheduled flag.
+    private static class Connection {
+        private final SocketChannel channel;
+        private final CommandProtocol protocol;
+        private final EventLoop loop;
+        private final Queue<String> requests = new ConcurrentLinkedQueue<>();
+        // Set while a worker owns this connection's requests
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+        private SelectionKey key;
+        private ByteBuffer input = ByteBuffer.allocate(1024);
+        private ByteBuffer output = ByteBuffer.allocate(1024);
+        // Requests read but not yet answered
+        private int queued;
+        // Set once no more input should be read
+        private boolean inputClosed;
+        // Set once the connection should close after its pending replies are sent
+        private boolean closing;
+
+        Connection(SocketChannel channel, CommandProtocol protocol, EventLoop loop) {
+            this.channel = channel;
+            this.protocol = protocol;
+            this.loop = loop;
+            this.output.flip();
+        }
+    }
+
+    // Replies to a batch of requests, on their way from a worker back to the event loop
+    private static class Completion {
+        private final Connection connection;
+        private final String replies;
+        private final int handled;
+        private final boolean closing;
+
+        Completion(Connection connection, String replies, int handled, boolean closing) {
+            this.connection = connection;
+            this.replies = replies;
+            this.handled = handled;
+            this.closing = closing;
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "command-server-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void add(SocketChannel channel) {
+            incoming.add(channel);
+            selector.wakeup();
+        }
+
+        void complete(Completion completion) {
+            completions.add(completion);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = incoming.poll()) != null) {
+                        register(channel);
+                    }
+                    Completion completion;
+                    while ((completion = completions.poll()) != null) {
+                        deliver(completion);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                read(key, connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush(key, connection);
+                            }
+                        } catch (IOException e) {
+                            close(key, connection);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                // Shutting down
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close(key, (Connection) key.attachment());
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel, new CommandProtocol(system), this);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.incrementAndGet();
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Nothing to release
+                }
+            }
+        }
+
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            if (!connection.input.hasRemaining()) {
+                connection.input = grow(connection.input);
+            }
+            int read = connection.channel.read(connection.input);
+            if (read < 0) {
+                close(key, connection);
+                return;
+            }
+
+            ByteBuffer input = connection.input;
+            input.flip();
+            int lineStart = input.position();
+            int lines = 0;
+            for (int i = lineStart; i < input.limit(); i++) {
+                if (input.get(i) == '\n') {
+                    int end = i > lineStart && input.get(i - 1) == '\r' ? i - 1 : i;
+                    connection.requests.add(new String(input.array(), lineStart, end - lineStart, StandardCharsets.UTF_8));
+                    lines++;
+                    lineStart = i + 1;
+                }
+            }
+            input.position(lineStart);
+            input.compact();
+            if (input.position() > MAX_LINE) {
+                connection.requests.add(LINE_TOO_LONG);
+                lines++;
+                connection.inputClosed = true;
+            }
+            if (lines > 0) {
+                connection.queued += lines;
+                schedule(connection);
+            }
+            flush(key, connection);
+        }
+
+        private void deliver(Completion completion) {
+            Connection connection = completion.connection;
+            SelectionKey key = connection.key;
+            if (!key.isValid()) {
+                return;
+            }
+            connection.queued -= completion.handled;
+            append(connection, completion.replies);
+            if (completion.closing) {
+                connection.inputClosed = true;
+                connection.closing = true;
+            }
+            try {
+                flush(key, connection);
+            } catch (IOException e) {
+                close(key, connection);
+            }
+        }
+
+        private void flush(SelectionKey key, Connection connection) throws IOException {
+            connection.channel.write(connection.output);
+            boolean readable = !connection.inputClosed && connection.queued < MAX_QUEUED_REQUESTS
+                    && connection.output.remaining() < MAX_PENDING_OUTPUT;
+            if (connection.output.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE | (readable ? SelectionKey.OP_READ : 0));
+            } else if (connection.closing) {
+                close(key, connection);
+            } else {
+                key.interestOps(readable ? SelectionKey.OP_READ : 0);
+            }
+        }
+
+        private void close(SelectionKey key, Connection connection) {
+            if (!key.isValid()) {
+                return;
+            }
+            key.cancel();
+            connection.inputClosed = true;
+            connection.closed = true;
+            connection.requests.clear();
+            // A worker still handling a request closes the protocol once it is done
+            if (connection.scheduled.compareAndSet(false, true)) {
+                connection.protocol.close();
+            }
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            connections.decrementAndGet();
+        }
+    }
+
+    private final SmartHomeSystem system;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final Thread acceptor;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ExecutorService workers;
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private volatile boolean running = true;
+
+    public CommandServer(SmartHomeSystem system, InetSocketAddress address, int eventLoops) throws IOException {
+        // Requests may block on I/O, so allow more workers than cores
+        this(system, address, eventLoops, Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    public CommandServer(SmartHomeSystem system, InetSocketAddress address, int eventLoops, int workerThreads)
+            throws IOException {
+        this.system = system;
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "command-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address, 4096);
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        this.acceptor = new Thread(this::acceptLoop, "command-server-accept");
+        this.acceptor.setDaemon(true);
+    }
+
+    public void start() {
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        acceptor.start();
+        EventLog.info("Server", null, "listening on", serverChannel.socket().getLocalSocketAddress());
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        workers.shutdown();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                loops[next].add(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (running) {
+                    EventLog.warn("Server", null, "accept failed:", e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Hands the connection's queued requests to a worker unless one already owns them
+    private void schedule(Connection connection) {
+        if (connection.scheduled.compareAndSet(false, true)) {
+            try {
+                workers.execute(() -> process(connection));
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+    }
+
+    // Runs on a worker: answers the queued requests in order and posts the replies back
+    private void process(Connection connection) {
+        StringBuilder replies = new StringBuilder();
+        int handled = 0;
+        boolean closing = connection.protocol.isClosing();
+        String line;
+        while (!connection.closed && (line = connection.requests.poll()) != null) {
+            handled++;
+            if (closing) {
+                // Requests pipelined after QUIT are dropped
+                continue;
+            }
+            if (line == LINE_TOO_LONG) {
+                replies.append("ERR line too long\n");
+                closing = true;
+                continue;
+            }
+            long start = System.nanoTime();
+            replies.append(connection.protocol.handle(line)).append('\n');
+            metrics.recordLatency("server_request", System.nanoTime() - start);
+            closing = connection.protocol.isClosing();
+        }
+        connection.loop.complete(new Completion(connection, replies.toString(), handled, closing));
+        connection.scheduled.set(false);
+        if (connection.closed) {
+            // The loop closed the connection while this worker held the protocol
+            if (connection.scheduled.compareAndSet(false, true)) {
+                connection.protocol.close();
+            }
+            return;
+        }
+        // Requests that arrived after the last poll but before the flag was cleared
+        if (!connection.requests.isEmpty()) {
+            schedule(connection);
+        }
+    }
+
+    // Appends newline-terminated replies to the connection's output
+    private static void append(Connection connection, String replies) {
+        byte[] bytes = replies.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer output = connection.output;
+        if (output.capacity() - output.remaining() < bytes.length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.remaining() + bytes.length));
+            larger.put(output);
+            larger.flip();
+            output = larger;
+        }
+        // Output is kept flipped for writing; reopen it at the end to append
+        output.compact();
+        output.put(bytes);
+        output.flip();
+        connection.output = output;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
@@ -0,0 +1,93 @@
+package com.smarthome.shard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.smarthome.automation.Automation;
+import com.smarthome.devices.Device;
+import com.smarthome.energy.EnergyStore;
+import com.smarthome.logging.EventLog;
+
+// One partition of a ShardedSystem: its devices, the rules triggered by them and an energy
+// store, all touched only by the shard's own thread. Other threads talk to it by posting
+// tasks to its inbox, which the thread drains in batches.
+class Shard implements Runnable {
+    private static final int DRAIN_BATCH = 256;
+
+    private final int index;
+    private final Map<String, Device> devices;
+    private final EnergyStore energyStore;
+    private final Automation automation;
+    private final BlockingQueue<Runnable> inbox;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    Shard(int index) {
+        this.index = index;
+        this.devices = new HashMap<>();
+        this.energyStore = new EnergyStore();
+        this.automation = new Automation();
+        this.automation.setTimerExecutor(this::post);
+        this.inbox = new LinkedBlockingQueue<>();
+        this.thread = new Thread(this, "shard-" + index);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void post(Runnable task) {
+        inbox.add(task);
+    }
+
+    <T> CompletableFuture<T> call(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        post(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    void stop() {
+        running = false;
+        post(() -> { });
+    }
+
+    @Override
+    public void run() {
+        List<Runnable> batch = new ArrayList<>(DRAIN_BATCH);
+        while (running) {
+            try {
+                batch.add(inbox.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            inbox.drainTo(batch, DRAIN_BATCH - 1);
+            for (Runnable task : batch) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    EventLog.error("Shard", index, "task failed:", e.toString());
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    // The accessors below are for use on the shard thread only
+    int getIndex() { return index; }
+    Map<String, Device> getDevices() { return devices; }
+    EnergyStore getEnergyStore() { return energyStore; }
+    Automation getAutomation() { return automation; }
+}
@@ -0,0 +1,214 @@
+package com.smarthome.shard;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.smarthome.automation.Automation;
+import com.smarthome.core.DeviceCommand;
+import com.smarthome.core.Transition;
+import com.smarthome.devices.Device;
+import com.smarthome.devices.DeviceTypeRegistry;
+import com.smarthome.exception.AutomationException;
+import com.smarthome.exception.DeviceOperationException;
+import com.smarthome.metrics.MetricsRegistry;
+
+// Device engine partitioned across N single-writer shards for multi-core scaling.
+// Devices are placed by a hash of their id, and a rule lives on the shard of its trigger
+// device. Commands run on the owning shard's thread; a rule action aimed at a device on
+// another shard is forwarded there as a message and continues the cascade at the same
+// depth and with the same action budget. Reads also go through the owner, which hands
+// back a detached copy rather than the live device. Callers are expected to have authorized requests already, as with
+// SmartHomeSystem sessions. Cycle detection only sees rules within one shard; cycles that
+// cross shards are still bounded by the cascade depth limit.
+public class ShardedSystem {
+    private final Shard[] shards;
+    // For resolving rule targets across shards; each device is still only touched by its owner
+    private final Map<String, Device> directory;
+    private final Map<String, Shard> ruleOwners;
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final DeviceTypeRegistry deviceTypes = DeviceTypeRegistry.getDefault();
+
+    public ShardedSystem(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        this.shards = new Shard[shardCount];
+        this.directory = new ConcurrentHashMap<>();
+        this.ruleOwners = new ConcurrentHashMap<>();
+        for (int i = 0; i < shardCount; i++) {
+            Shard shard = new Shard(i);
+            shard.getAutomation().setForwarder((rule, target, depth, budget) -> {
+                Shard owner = shardFor(target.getDeviceId());
+                if (owner == shard) {
+                    return false;
+                }
+                owner.post(() -> owner.getAutomation().applyForwarded(rule, target, depth, budget));
+                return true;
+            });
+            shards[i] = shard;
+        }
+        for (Shard shard : shards) {
+            shard.start();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(String deviceId) {
+        int hash = deviceId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    // Completes with false if a device with the same id already exists
+    public CompletableFuture<Boolean> addDevice(Device device) {
+        if (directory.putIfAbsent(device.getDeviceId(), device) != null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        Shard shard = shardFor(device.getDeviceId());
+        return shard.call(() -> {
+            shard.getDevices().put(device.getDeviceId(), device);
+            device.bindEnergyStore(shard.getEnergyStore());
+            return true;
+        });
+    }
+
+    // Completes with a copy of the device's state taken on its shard, or null if there is
+    // no such device. The copy is not bound to the shard, so changing it changes nothing.
+    public CompletableFuture<Device> getDevice(String deviceId) {
+        Shard shard = shardFor(deviceId);
+        return shard.call(() -> {
+            Device device = shard.getDevices().get(deviceId);
+            return device != null ? copyOf(device) : null;
+        });
+    }
+
+    public int getDeviceCount() {
+        return directory.size();
+    }
+
+    // Typed fast path; the result reports whether the state changed
+    public CompletableFuture<Transition> control(String deviceId, DeviceCommand command, int value) {
+        Shard shard = shardFor(deviceId);
+        return shard.call(() -> {
+            Device device = lookup(shard, deviceId);
+            metrics.recordCommand(command.name(), device.getDeviceType());
+            return changed(shard, device, device.apply(command, value));
+        });
+    }
+
+    public CompletableFuture<Transition> control(String deviceId, String command, String... parameters) {
+        Shard shard = shardFor(deviceId);
+        return shard.call(() -> {
+            Device device = lookup(shard, deviceId);
+            metrics.recordCommand(command, device.getDeviceType());
+            return changed(shard, device, device.apply(command, parameters));
+        });
+    }
+
+    // The rule is owned by the trigger device's shard; targets may live anywhere
+    public CompletableFuture<Void> createRule(String ruleName, String triggerDeviceId, String triggerCondition,
+                                             String action, String... targetDeviceIds) {
+        Device trigger = directory.get(triggerDeviceId);
+        if (trigger == null) {
+            return CompletableFuture.failedFuture(new AutomationException("Unknown device: " + triggerDeviceId));
+        }
+        Device[] targets = new Device[targetDeviceIds.length];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = directory.get(targetDeviceIds[i]);
+            if (targets[i] == null) {
+                return CompletableFuture.failedFuture(new AutomationException("Unknown device: " + targetDeviceIds[i]));
+            }
+        }
+        Shard shard = shardFor(triggerDeviceId);
+        if (ruleOwners.putIfAbsent(ruleName, shard) != null) {
+            return CompletableFuture.failedFuture(new AutomationException("Rule already exists: " + ruleName));
+        }
+        return shard.call(() -> {
+            try {
+                shard.getAutomation().createRule(ruleName, trigger, triggerCondition, action, targets);
+                return null;
+            } catch (AutomationException e) {
+                ruleOwners.remove(ruleName, shard);
+                throw e;
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> removeRule(String ruleName) {
+        Shard shard = ruleOwners.remove(ruleName);
+        if (shard == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return shard.call(() -> shard.getAutomation().removeRule(ruleName));
+    }
+
+    public CompletableFuture<Void> triggerEvent(String deviceId, String event) {
+        Shard shard = shardFor(deviceId);
+        return shard.call(() -> {
+            shard.getAutomation().triggerEvent(lookup(shard, deviceId), event);
+            return null;
+        });
+    }
+
+    public void setCascadeLimits(int maxDepth, int maxActions) {
+        for (Shard shard : shards) {
+            shard.getAutomation().setCascadeLimits(maxDepth, maxActions);
+        }
+    }
+
+    public void setCyclePolicy(Automation.CyclePolicy policy) {
+        for (Shard shard : shards) {
+            shard.getAutomation().setCyclePolicy(policy);
+        }
+    }
+
+    // Total energy across the shards' stores, each read on its own thread
+    public CompletableFuture<Double> getTotalEnergy() {
+        CompletableFuture<Double> total = CompletableFuture.completedFuture(0.0);
+        for (Shard shard : shards) {
+            total = total.thenCombine(shard.call(() -> shard.getEnergyStore().getTotal()), Double::sum);
+        }
+        return total;
+    }
+
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+    }
+
+    private Shard shardFor(String deviceId) {
+        return shards[shardOf(deviceId)];
+    }
+
+    private Device copyOf(Device device) throws DeviceOperationException {
+        Device copy = deviceTypes.create(device.getDeviceType(), device.getDeviceId(), device.getName(),
+                device.getLocation());
+        if (copy == null) {
+            throw new DeviceOperationException("Cannot copy device type: " + device.getDeviceType());
+        }
+        copy.restoreState(device.isOn(), device.getEnergyConsumption(), device.getStateValue(),
+                device.getStateText());
+        return copy;
+    }
+
+    private static Device lookup(Shard shard, String deviceId) throws DeviceOperationException {
+        Device device = shard.getDevices().get(deviceId);
+        if (device == null) {
+            throw new DeviceOperationException("Unknown device: " + deviceId);
+        }
+        return device;
+    }
+
+    // Rules on this shard see the change before the next queued command runs
+    private Transition changed(Shard shard, Device device, Transition result) {
+        metrics.recordTransition(result);
+        if (result == Transition.CHANGED) {
+            shard.getAutomation().deviceChanged(device, device.isOn(), device.getStateValue(), device.getStateText());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,12 @@
+package com.smarthome.user;
+
+// Outcome of a login attempt; failures are ordinary values rather than exceptions
+public enum AuthResult {
+    SUCCESS,
+    UNKNOWN_USER,
+    INVALID_PASSWORD;
+
+    public boolean isSuccess() {
+        return this == SUCCESS;
+    }
+}
@@ -0,0 +1,42 @@
+package com.smarthome.user;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// Salted PBKDF2-HMAC-SHA256 password hashes, compared in constant time. The iteration
+// count is kept with each hash, so raising it later still verifies the older ones.
+final class PasswordHash {
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_BITS = 256;
+    // OWASP's recommendation for this PRF; tests lower it through the system property
+    static final int ITERATIONS = Integer.getInteger("smarthome.password.iterations", 600_000);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordHash() {
+    }
+
+    static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    static byte[] hash(byte[] salt, int iterations, String password) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    static boolean matches(byte[] salt, int iterations, byte[] expected, String password) {
+        return password != null && MessageDigest.isEqual(expected, hash(salt, iterations, password));
+    }
+}
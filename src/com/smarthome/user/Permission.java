@@ -0,0 +1,50 @@
+package com.smarthome.user;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Actions a session may perform; each maps to one bit of a user's permission mask
+public enum Permission {
+    CONTROL_DEVICE,
+    VIEW_STATUS,
+    ADMIN_ADD_DEVICE,
+    ADMIN_REMOVE_DEVICE,
+    ADMIN_MANAGE_USERS,
+    ADMIN_MANAGE_RULES;
+
+    private static final Map<String, Permission> BY_NAME = new HashMap<>();
+    private static final long ALL;
+    private static final long NON_ADMIN;
+
+    static {
+        long all = 0;
+        long nonAdmin = 0;
+        for (Permission permission : values()) {
+            BY_NAME.put(permission.name(), permission);
+            all |= permission.bit();
+            if (!permission.isAdmin()) {
+                nonAdmin |= permission.bit();
+            }
+        }
+        ALL = all;
+        NON_ADMIN = nonAdmin;
+    }
+
+    public long bit() {
+        return 1L << ordinal();
+    }
+
+    public boolean isAdmin() {
+        return name().startsWith("ADMIN_");
+    }
+
+    // Returns null for actions that have no permission bit
+    public static Permission fromName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    // Admins get every bit; other roles get the non-admin actions
+    public static long maskFor(String role) {
+        return "ADMIN".equals(role) ? ALL : NON_ADMIN;
+    }
+}
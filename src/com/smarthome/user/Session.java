@@ -0,0 +1,63 @@
+package com.smarthome.user;
+
+// A logged-in user; each client holds its own session instead of sharing one current user.
+// A session ends when closed, when left idle too long, or when it reaches its maximum age.
+public class Session {
+    private final User user;
+    private final String token;
+    private final long loginTime;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private volatile long lastAccessTime;
+    private volatile boolean active;
+
+    public Session(User user, String token, long idleTimeoutMillis, long maxLifetimeMillis) {
+        this.user = user;
+        this.token = token;
+        this.loginTime = System.currentTimeMillis();
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.lastAccessTime = loginTime;
+        this.active = true;
+    }
+
+    // Permission checks count as use and keep the session from going idle
+    public boolean hasPermission(Permission permission) {
+        return touch() && user.hasPermission(permission);
+    }
+
+    public boolean hasPermission(String action) {
+        return touch() && user.hasPermission(action);
+    }
+
+    public void close() {
+        active = false;
+    }
+
+    // Returns false, and closes the session, once it has timed out
+    public boolean isActive() {
+        if (!active) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastAccessTime >= idleTimeoutMillis || now - loginTime >= maxLifetimeMillis) {
+            active = false;
+        }
+        return active;
+    }
+
+    // Marks the session used if it is still active
+    boolean touch() {
+        if (!isActive()) {
+            return false;
+        }
+        lastAccessTime = System.currentTimeMillis();
+        return true;
+    }
+
+    // Getters
+    public User getUser() { return user; }
+    public String getToken() { return token; }
+    public long getLoginTime() { return loginTime; }
+    public long getLastAccessTime() { return lastAccessTime; }
+}
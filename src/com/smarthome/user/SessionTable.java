@@ -0,0 +1,76 @@
+package com.smarthome.user;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Open sessions keyed by an unguessable token, so any number of clients can stay
+// logged in at once and each request validates its token with one hash lookup
+public class SessionTable {
+    private static final int TOKEN_BYTES = 16;
+    private static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+    private static final long DEFAULT_MAX_LIFETIME = TimeUnit.HOURS.toMillis(12);
+
+    private final Map<String, Session> sessions;
+    private final SecureRandom random;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+
+    public SessionTable() {
+        this(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_LIFETIME);
+    }
+
+    public SessionTable(long idleTimeoutMillis, long maxLifetimeMillis) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.random = new SecureRandom();
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+    }
+
+    public Session open(User user) {
+        while (true) {
+            Session session = new Session(user, newToken(), idleTimeoutMillis, maxLifetimeMillis);
+            if (sessions.putIfAbsent(session.getToken(), session) == null) {
+                return session;
+            }
+        }
+    }
+
+    // Returns the session if the token is known and still active, otherwise null.
+    // Validating counts as use; a session found timed out is dropped from the table.
+    public Session validate(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (!session.touch()) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return session;
+    }
+
+    public boolean close(String token) {
+        Session session = sessions.remove(token);
+        if (session == null) {
+            return false;
+        }
+        session.close();
+        return true;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
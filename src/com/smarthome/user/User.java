@@ -1,11 +1,14 @@
 package com.smarthome.user;
 
-import com.smarthome.exception.AuthenticationException;
-
 public class User {
     private String username;
-    private String password;
     private String role; // "ADMIN" or "USER"
+    // Only a salted hash of the password is kept
+    private final byte[] salt;
+    private final byte[] passwordHash;
+    private final int iterations;
+    // Precomputed so permission checks are a single bit test
+    private final long permissions;
     
     // Overloaded constructors
     public User(String username, String password) {
@@ -14,26 +17,30 @@ public class User {
     
     public User(String username, String password, String role) {
         this.username = username;
-        this.password = password;
         this.role = role;
+        this.salt = PasswordHash.newSalt();
+        this.iterations = PasswordHash.ITERATIONS;
+        this.passwordHash = PasswordHash.hash(salt, iterations, password);
+        this.permissions = Permission.maskFor(role);
     }
     
-    // Authentication method
-    public boolean authenticate(String password) throws AuthenticationException {
-        if (!this.password.equals(password)) {
-            throw new AuthenticationException("Invalid password for user: " + username);
-        }
-        return true;
+    // Authentication method; compares hashes in constant time
+    public boolean authenticate(String password) {
+        return PasswordHash.matches(salt, iterations, passwordHash, password);
     }
     
     // Permission check
+    public boolean hasPermission(Permission permission) {
+        return (permissions & permission.bit()) != 0;
+    }
+    
     public boolean hasPermission(String action) {
-        if (role.equals("ADMIN")) {
-            return true; // Admins can do everything
-        } else {
-            // Regular users can't perform certain admin actions
-            return !action.startsWith("ADMIN_");
+        Permission permission = Permission.fromName(action);
+        if (permission != null) {
+            return hasPermission(permission);
         }
+        // Actions without a bit: admins can do everything, users anything but ADMIN_*
+        return role.equals("ADMIN") || !action.startsWith("ADMIN_");
     }
     
     // Getters
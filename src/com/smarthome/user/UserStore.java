@@ -0,0 +1,38 @@
+package com.smarthome.user;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Users hashed by username; lookups and logins are lock-free
+public class UserStore {
+    // Checked against on unknown usernames so both failure paths cost one hash
+    private static final User PLACEHOLDER = new User("", "");
+
+    private final Map<String, User> users;
+
+    public UserStore() {
+        this.users = new ConcurrentHashMap<>();
+    }
+
+    // Returns false if the username is taken
+    public boolean add(User user) {
+        return users.putIfAbsent(user.getUsername(), user) == null;
+    }
+
+    public User get(String username) {
+        return users.get(username);
+    }
+
+    public AuthResult authenticate(String username, String password) {
+        User user = users.get(username);
+        if (user == null) {
+            PLACEHOLDER.authenticate(password);
+            return AuthResult.UNKNOWN_USER;
+        }
+        return user.authenticate(password) ? AuthResult.SUCCESS : AuthResult.INVALID_PASSWORD;
+    }
+
+    public int size() {
+        return users.size();
+    }
+}